@@ -15,18 +15,40 @@ public abstract class AbstractBufferManager implements BufferManager {
      * The buffer.
      */
     protected final byte[] buffer;
+    /**
+     * The number of cells that are set.
+     */
+    protected int cardinality;
 
     /**
      * Get a buffer manager based on the shape.
+     * <p>Shapes with a number of bits per cell that is not a power of 2 use a
+     * CompactBufferManager so that no bits are wasted. Shapes that store one cell
+     * per byte use a Simple buffer, all others, including 16 bit cells, use a word
+     * packed buffer.</p>
+     * <p>Blocked StableShapes always use a word packed {@link AbstractWordBufferManager.Heap}
+     * buffer: its cells are in power of 2 lanes so each block is a whole number of
+     * words. To align each block with a cache line pass a
+     * {@link AbstractWordBufferManager.Direct} buffer to the filter instead.</p>
      * @param shape the BufferShape to create.
      * @return a BufferManager instance.
      */
     public static BufferManager instance(BufferShape shape) {
+        if (shape instanceof StableShape && ((StableShape) shape).isBlocked()) {
+            return new AbstractWordBufferManager.Heap(shape);
+        }
+        if (Integer.bitCount(shape.bitsPerCell()) != 1) {
+            return new CompactBufferManager(shape);
+        }
         byte entriesPerByte = (byte) (Byte.SIZE / shape.bitsPerCell());
-        return (entriesPerByte == 1) ? new Simple(shape) : new Packed(shape);
+        return (entriesPerByte == 1) ? new Simple(shape) : new AbstractWordBufferManager.Heap(shape);
     }
 
     private AbstractBufferManager(BufferShape shape, int buffSize) {
+        if (shape.bitsPerCell() > Byte.SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Byte buffers support at most %s bits per cell not %s", Byte.SIZE, shape.bitsPerCell()));
+        }
         this.shape = shape;
         this.buffer = new byte[buffSize];
     }
@@ -34,6 +56,42 @@ public abstract class AbstractBufferManager implements BufferManager {
     @Override
     public void clear() {
         Arrays.fill(buffer, (byte) 0);
+        cardinality = 0;
+    }
+
+    @Override
+    public BufferShape getShape() {
+        return shape;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    public void set(int entry) {
+        cardinality += setUncounted(entry);
+    }
+
+    @Override
+    public void decrement(int entry) {
+        cardinality += decrementUncounted(entry);
+    }
+
+    @Override
+    public void addCardinality(int delta) {
+        cardinality += delta;
+    }
+
+    /**
+     * Calculates the change in cardinality when a cell changes state.
+     * @param wasSet {@code true} if the cell was set before the change.
+     * @param isSet {@code true} if the cell is set after the change.
+     * @return 1 if the cell became set, -1 if it became unset, 0 otherwise.
+     */
+    static int transition(boolean wasSet, boolean isSet) {
+        return wasSet == isSet ? 0 : (isSet ? 1 : -1);
     }
 
     /**
@@ -73,6 +131,7 @@ public abstract class AbstractBufferManager implements BufferManager {
         public Simple copy() {
             Simple result = new Simple(this.shape);
             System.arraycopy(this.buffer, 0, result.buffer, 0, result.buffer.length);
+            result.cardinality = this.cardinality;
             return result;
         }
 
@@ -82,15 +141,19 @@ public abstract class AbstractBufferManager implements BufferManager {
         }
 
         @Override
-        public void set(int entry) {
+        public int setUncounted(int entry) {
+            boolean wasSet = buffer[entry] != 0;
             buffer[entry] = BufferShape.asByte(shape.resetValue());
+            return wasSet ? 0 : 1;
         }
 
         @Override
-        public void decrement(int entry) {
-            if (buffer[entry] != 0) {
-                buffer[entry] = BufferShape.asByte(BufferShape.asInt(buffer[entry]) - 1);
+        public int decrementUncounted(int entry) {
+            if (buffer[entry] == 0) {
+                return 0;
             }
+            buffer[entry] = BufferShape.asByte(BufferShape.asInt(buffer[entry]) - 1);
+            return buffer[entry] == 0 ? -1 : 0;
         }
 
         @Override
@@ -100,7 +163,9 @@ public abstract class AbstractBufferManager implements BufferManager {
 
         @Override
         public void func(int entry, int value, IntBinaryOperator f) {
+            boolean wasSet = buffer[entry] != 0;
             buffer[entry] = BufferShape.asByte(f.applyAsInt(get(entry), value));
+            cardinality += transition(wasSet, buffer[entry] != 0);
         }
     }
 
@@ -136,6 +201,7 @@ public abstract class AbstractBufferManager implements BufferManager {
         public Packed copy() {
             Packed result = new Packed(this.shape);
             System.arraycopy(this.buffer, 0, result.buffer, 0, result.buffer.length);
+            result.cardinality = this.cardinality;
             return result;
         }
 
@@ -176,13 +242,22 @@ public abstract class AbstractBufferManager implements BufferManager {
         }
 
         @Override
-        public void set(int entry) {
-            set(location(entry), shape.resetValue());
+        public int setUncounted(int entry) {
+            int[] location = location(entry);
+            int before = get(location);
+            set(location, shape.resetValue());
+            return before == 0 ? 1 : 0;
         }
 
         @Override
-        public void decrement(int entry) {
-            func(entry, 1, (x, y) -> x > 0 ? x - y : 0);
+        public int decrementUncounted(int entry) {
+            int[] location = location(entry);
+            int before = get(location);
+            if (before == 0) {
+                return 0;
+            }
+            set(location, before - 1);
+            return before == 1 ? -1 : 0;
         }
 
         @Override
@@ -194,7 +269,9 @@ public abstract class AbstractBufferManager implements BufferManager {
         @Override
         public void func(int entry, int value, IntBinaryOperator f) {
             int[] location = location(entry);
-            set(location, f.applyAsInt(get(location), value));
+            int before = get(location);
+            set(location, f.applyAsInt(before, value));
+            cardinality += transition(before != 0, get(location) != 0);
         }
     }
 }
\ No newline at end of file
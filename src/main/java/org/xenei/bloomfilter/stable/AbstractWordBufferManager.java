@@ -0,0 +1,459 @@
+package org.xenei.bloomfilter.stable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A BufferManager that packs cells into 64-bit words.
+ * <p>
+ * The number of bits used to store a cell is rounded up to the next power of 2
+ * so that the number of cells in a word is also a power of 2. This allows the
+ * word and the position within the word to be calculated with shifts and masks
+ * and no objects are allocated when accessing a cell.
+ * </p>
+ * <p>
+ * Bulk decrements are applied a word at a time: all the cells of a word that are
+ * to be decremented are marked in a selector and the saturating subtraction is
+ * applied to every marked cell at once (SIMD within a register).
+ * </p>
+ */
+public abstract class AbstractWordBufferManager implements BufferManager {
+
+    /**
+     * The BufferShape of the buffer.
+     */
+    protected final BufferShape shape;
+    /**
+     * log2 of the number of bits in a stored cell.
+     */
+    protected final int bitShift;
+    /**
+     * log2 of the number of cells in a word.
+     */
+    protected final int wordShift;
+    /**
+     * The mask to extract the position of a cell within a word.
+     */
+    protected final int cellIndexMask;
+    /**
+     * The mask for a single cell.
+     */
+    protected final long mask;
+    /**
+     * The value to set a cell to.
+     */
+    protected final long resetValue;
+    /**
+     * A word with the lowest bit of every cell set.
+     */
+    protected final long laneLowBits;
+    /**
+     * A word with the highest bit of every cell set.
+     */
+    protected final long laneHighBits;
+    /**
+     * The number of cells that are set.
+     */
+    protected int cardinality;
+
+    /**
+     * Constructor.
+     * @param shape the shape for the buffer.
+     */
+    protected AbstractWordBufferManager(BufferShape shape) {
+        this.shape = shape;
+        this.bitShift = bitShift(shape);
+        this.wordShift = 6 - bitShift;
+        this.cellIndexMask = (1 << wordShift) - 1;
+        this.mask = (1L << shape.bitsPerCell()) - 1;
+        this.resetValue = shape.resetValue();
+        long lanes = 1L;
+        for (int width = 1 << bitShift; width < Long.SIZE; width <<= 1) {
+            lanes |= lanes << width;
+        }
+        this.laneLowBits = lanes;
+        this.laneHighBits = lanes << ((1 << bitShift) - 1);
+    }
+
+    /**
+     * Calculates log2 of the number of bits used to store a cell.
+     * The number of bits per cell is rounded up to the next power of 2.
+     * @param shape the buffer shape.
+     * @return log2 of the stored cell width.
+     */
+    static int bitShift(BufferShape shape) {
+        return 32 - Integer.numberOfLeadingZeros(shape.bitsPerCell() - 1);
+    }
+
+    /**
+     * Calculates the number of 64-bit words required to store the cells of the shape.
+     * @param shape the buffer shape.
+     * @return the number of words required.
+     */
+    static int numberOfWords(BufferShape shape) {
+        int cellsPerWord = Long.SIZE >> bitShift(shape);
+        return (int) ((shape.numberOfCells() + (long) cellsPerWord - 1) / cellsPerWord);
+    }
+
+    /**
+     * Sets every word in the buffer to zero.
+     */
+    protected abstract void clearWords();
+
+    /**
+     * Gets the word at the index.
+     * @param index the index of the word.
+     * @return the word.
+     */
+    protected abstract long getWord(int index);
+
+    /**
+     * Sets the word at the index.
+     * @param index the index of the word.
+     * @param value the new value for the word.
+     */
+    protected abstract void setWord(int index, long value);
+
+    /**
+     * Gets the bit offset of the entry within its word.
+     * @param entry the entry to locate.
+     * @return the bit offset of the entry.
+     */
+    protected final int offset(int entry) {
+        return (entry & cellIndexMask) << bitShift;
+    }
+
+    @Override
+    public void clear() {
+        clearWords();
+        cardinality = 0;
+    }
+
+    @Override
+    public BufferShape getShape() {
+        return shape;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    public void addCardinality(int delta) {
+        cardinality += delta;
+    }
+
+    /**
+     * Counts the cells that are set by scanning the words.
+     * @return the number of cells that are set.
+     */
+    protected int countSetCells() {
+        int result = 0;
+        int words = numberOfWords(shape);
+        for (int i = 0; i < words; i++) {
+            result += Long.bitCount(nonZeroLanes(getWord(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public int get(int entry) {
+        return (int) ((getWord(entry >> wordShift) >>> offset(entry)) & mask);
+    }
+
+    @Override
+    public void set(int entry) {
+        cardinality += setUncounted(entry);
+    }
+
+    @Override
+    public int setUncounted(int entry) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long word = getWord(idx);
+        setWord(idx, (word & ~(mask << offset)) | (resetValue << offset));
+        return (word & (mask << offset)) == 0 ? 1 : 0;
+    }
+
+    @Override
+    public void decrement(int entry) {
+        cardinality += decrementUncounted(entry);
+    }
+
+    @Override
+    public int decrementUncounted(int entry) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long word = getWord(idx);
+        long cell = word & (mask << offset);
+        if (cell == 0) {
+            return 0;
+        }
+        setWord(idx, word - (1L << offset));
+        return cell == (1L << offset) ? -1 : 0;
+    }
+
+    /**
+     * Decrements every cell of the word that has its lowest bit set in the selector.
+     * Cells that are already zero are not changed.
+     * @param word the word to decrement.
+     * @param selector a word with the lowest bit of each cell to decrement set.
+     * @return the decremented word.
+     */
+    protected final long decrementLanes(long word, long selector) {
+        return word - ((nonZeroLanes(word) >>> ((1 << bitShift) - 1)) & selector);
+    }
+
+    /**
+     * Finds the cells of the word that are not zero.
+     * @param word the word to check.
+     * @return a word with the highest bit of every non-zero cell set.
+     */
+    protected final long nonZeroLanes(long word) {
+        // adding the low bits of a cell to the low mask carries into the high bit
+        // if any of the low bits are set.
+        long lowMask = laneHighBits - laneLowBits;
+        return (((word & lowMask) + lowMask) | word) & laneHighBits;
+    }
+
+    /**
+     * Decrements the selected cells of the word at the index.
+     * @param index the index of the word.
+     * @param selector a word with the lowest bit of each cell to decrement set.
+     * @see #decrementLanes(long, long)
+     */
+    protected void decrementWord(int index, long selector) {
+        long word = getWord(index);
+        long result = decrementLanes(word, selector);
+        cardinality -= Long.bitCount(nonZeroLanes(word) & ~nonZeroLanes(result));
+        setWord(index, result);
+    }
+
+    @Override
+    public void decrement(int[] entries, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int idx = entries[0] >> wordShift;
+        long selector = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = entries[i];
+            int wordIdx = entry >> wordShift;
+            long bit = 1L << offset(entry);
+            // a cell may only be decremented once per pass.
+            if (wordIdx != idx || (selector & bit) != 0) {
+                decrementWord(idx, selector);
+                idx = wordIdx;
+                selector = 0;
+            }
+            selector |= bit;
+        }
+        decrementWord(idx, selector);
+    }
+
+    @Override
+    public void decrementRange(int from, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int last = from + count - 1;
+        int lastIdx = last >> wordShift;
+        // lanes at or above the first cell
+        long selector = laneLowBits & (-1L << offset(from));
+        for (int idx = from >> wordShift; idx < lastIdx; idx++) {
+            decrementWord(idx, selector);
+            selector = laneLowBits;
+        }
+        // lanes at or below the last cell
+        decrementWord(lastIdx, selector & (-1L >>> (Long.SIZE - 1 - offset(last))));
+    }
+
+    @Override
+    public boolean isSet(int entry) {
+        return (getWord(entry >> wordShift) & (mask << offset(entry))) != 0;
+    }
+
+    @Override
+    public void func(int entry, int value, IntBinaryOperator f) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long word = getWord(idx);
+        long before = (word >>> offset) & mask;
+        long result = f.applyAsInt((int) before, value) & mask;
+        cardinality += AbstractBufferManager.transition(before != 0, result != 0);
+        setWord(idx, (word & ~(mask << offset)) | (result << offset));
+    }
+
+    /**
+     * A word buffer that stores the words in a {@code long[]} on the heap.
+     */
+    public static class Heap extends AbstractWordBufferManager {
+        /**
+         * The buffer.
+         */
+        protected final long[] buffer;
+
+        /**
+         * Constructor.
+         * @param shape the shape for the buffer.
+         */
+        Heap(BufferShape shape) {
+            super(shape);
+            this.buffer = new long[numberOfWords(shape)];
+        }
+
+        @Override
+        public Heap copy() {
+            Heap result = new Heap(this.shape);
+            System.arraycopy(this.buffer, 0, result.buffer, 0, result.buffer.length);
+            result.cardinality = this.cardinality;
+            return result;
+        }
+
+        @Override
+        protected void clearWords() {
+            Arrays.fill(buffer, 0L);
+        }
+
+        @Override
+        protected long getWord(int index) {
+            return buffer[index];
+        }
+
+        @Override
+        protected void setWord(int index, long value) {
+            buffer[index] = value;
+        }
+    }
+
+    /**
+     * A word buffer that stores the words in direct (off heap) ByteBuffers.
+     * <p>
+     * The cells do not count against the Java heap and are not scanned or moved
+     * by the garbage collector. A ByteBuffer holds at most {@code Integer.MAX_VALUE}
+     * bytes so the words are split across segments of a power of 2 number of words,
+     * the segment and the word within it are found with a shift and a mask. Every
+     * segment starts on a {@link StableShape#BLOCK_BYTES} boundary so the blocks of
+     * a blocked shape are aligned with the cache lines.
+     * </p><p>
+     * {@link #close()} drops the buffers so that later use fails fast. The native
+     * memory is not freed by the call, it is returned when the garbage collector
+     * reclaims the dropped ByteBuffers.
+     * </p>
+     */
+    public static class Direct extends AbstractWordBufferManager implements AutoCloseable {
+        /**
+         * The default log2 of the number of words in a segment (128 MiB).
+         */
+        static final int DEFAULT_SEGMENT_SHIFT = 24;
+        /**
+         * log2 of the number of words in a segment.
+         */
+        private final int segmentShift;
+        /**
+         * The mask to extract the position of a word within a segment.
+         */
+        private final int segmentMask;
+        /**
+         * The segments. {@code null} once the buffer has been closed.
+         */
+        private ByteBuffer[] segments;
+
+        /**
+         * Constructor.
+         * @param shape the shape for the buffer.
+         */
+        public Direct(BufferShape shape) {
+            this(shape, DEFAULT_SEGMENT_SHIFT);
+        }
+
+        /**
+         * Constructor.
+         * @param shape the shape for the buffer.
+         * @param segmentShift log2 of the number of words in a segment. Must be in the range [3,27].
+         */
+        Direct(BufferShape shape, int segmentShift) {
+            super(shape);
+            if (segmentShift < 3 || segmentShift > 27) {
+                throw new IllegalArgumentException("Segment shift must be in the range [3,27]");
+            }
+            this.segmentShift = segmentShift;
+            this.segmentMask = (1 << segmentShift) - 1;
+            int words = numberOfWords(shape);
+            this.segments = new ByteBuffer[((words - 1) >>> segmentShift) + 1];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = allocate(Math.min(1 << segmentShift, words - (i << segmentShift)) * Long.BYTES);
+            }
+        }
+
+        /**
+         * Allocates a direct buffer of exactly {@code bytes} bytes that starts on a
+         * {@link StableShape#BLOCK_BYTES} boundary.
+         * @param bytes the number of bytes.
+         * @return the buffer in native byte order.
+         */
+        private static ByteBuffer allocate(int bytes) {
+            // alignedSlice trims both ends to the boundary so allocate whole blocks and a spare.
+            int blocks = (bytes + StableShape.BLOCK_BYTES - 1) / StableShape.BLOCK_BYTES + 1;
+            ByteBuffer aligned = ByteBuffer.allocateDirect(blocks * StableShape.BLOCK_BYTES)
+                    .alignedSlice(StableShape.BLOCK_BYTES);
+            aligned.limit(bytes);
+            // slices are always big endian, set the order last.
+            return aligned.slice().order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Gets the segments.
+         * @return the segments.
+         * @throws IllegalStateException if the buffer has been closed.
+         */
+        private ByteBuffer[] segments() {
+            if (segments == null) {
+                throw new IllegalStateException("Buffer has been closed");
+            }
+            return segments;
+        }
+
+        @Override
+        public Direct copy() {
+            Direct result = new Direct(this.shape, segmentShift);
+            for (int i = 0; i < result.segments.length; i++) {
+                result.segments[i].duplicate().put(segments()[i].duplicate());
+            }
+            result.cardinality = this.cardinality;
+            return result;
+        }
+
+        @Override
+        protected void clearWords() {
+            for (ByteBuffer buff : segments()) {
+                for (int j = 0; j < buff.capacity(); j += Long.BYTES) {
+                    buff.putLong(j, 0L);
+                }
+            }
+        }
+
+        @Override
+        protected long getWord(int index) {
+            return segments()[index >>> segmentShift].getLong((index & segmentMask) << 3);
+        }
+
+        @Override
+        protected void setWord(int index, long value) {
+            segments()[index >>> segmentShift].putLong((index & segmentMask) << 3, value);
+        }
+
+        /**
+         * Drops the buffers. Any further use of this manager will throw an
+         * IllegalStateException. The native memory is freed when the garbage
+         * collector reclaims the buffers, not by this call.
+         */
+        @Override
+        public void close() {
+            segments = null;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.collections4.bloomfilter.BitMap;
+import org.apache.commons.collections4.bloomfilter.BitMapProducer;
+import org.apache.commons.collections4.bloomfilter.BloomFilter;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * A sliding window Bloom filter made of a ring of generations.
+ * <p>
+ * Each generation is a bit map of the Shape. Items are merged into the newest
+ * generation and when it holds {@code itemsPerGeneration} items, or when
+ * {@link #advance()} is called, the oldest generation is cleared and becomes the
+ * newest. An item is found until at least {@code (generations - 1) * itemsPerGeneration}
+ * later items have been merged and is always forgotten once
+ * {@code generations * itemsPerGeneration} have, so unlike a StableBloomFilter the
+ * window is exact. A merge sets {@code k} bits and a test checks up to {@code k} bits in
+ * each generation.
+ * </p>
+ * <p>
+ * Expiry clears the {@code m / 64} words of one generation in place, so it is
+ * linear in the size of a generation rather than constant time. It runs inline in
+ * the merge that fills the newest generation, so that merge is slower, but its cost
+ * is a sequential write spread over {@code itemsPerGeneration} merges. Clearing
+ * lazily, with an epoch per word, would make expiry constant time but would add an
+ * int per word and a second load to every probe.
+ * </p>
+ * <p>
+ * The bit map and index views, and so the cardinality, are those of the union of
+ * the generations. The contains methods test each generation on its own, as the
+ * item was merged into one generation, so a filter whose bits are spread over
+ * several generations is found in the union view but is not contained.
+ * </p>
+ * <p>This class is not thread safe.</p>
+ * @see StableBloomFilter
+ */
+public class AgePartitionedBloomFilter implements BloomFilter {
+    private final Shape shape;
+    private final int itemsPerGeneration;
+    /**
+     * The bit maps of the generations.
+     */
+    private final long[][] generations;
+    /**
+     * The index of the newest generation.
+     */
+    private int current;
+    /**
+     * The number of items merged into the newest generation.
+     */
+    private int count;
+    /**
+     * The indices of the item being tested.
+     */
+    private int[] probes;
+    /**
+     * The number of probes.
+     */
+    private int probeCount;
+    /**
+     * Records each index it is given in the probes.
+     */
+    private final IntPredicate prober = this::probeIndex;
+
+    /**
+     * Create an age partitioned Bloom filter.
+     * @param shape the shape of each generation.
+     * @param generations the number of generations. Must be at least 2.
+     * @param itemsPerGeneration the number of items merged into a generation before the oldest
+     * is expired. Must be greater than 0.
+     */
+    public AgePartitionedBloomFilter(Shape shape, int generations, int itemsPerGeneration) {
+        this.shape = Objects.requireNonNull(shape, "shape");
+        if (generations < 2) {
+            throw new IllegalArgumentException("Number of generations must be at least 2");
+        }
+        if (itemsPerGeneration < 1) {
+            throw new IllegalArgumentException("Items per generation must be greater than 0");
+        }
+        this.itemsPerGeneration = itemsPerGeneration;
+        this.generations = new long[generations][BitMap.numberOfBitMaps(shape.getNumberOfBits())];
+        this.probes = new int[shape.getNumberOfHashFunctions()];
+    }
+
+    private AgePartitionedBloomFilter(AgePartitionedBloomFilter other) {
+        this.shape = other.shape;
+        this.itemsPerGeneration = other.itemsPerGeneration;
+        this.generations = new long[other.generations.length][];
+        for (int i = 0; i < generations.length; i++) {
+            this.generations[i] = other.generations[i].clone();
+        }
+        this.current = other.current;
+        this.count = other.count;
+        this.probes = new int[other.probes.length];
+    }
+
+    @Override
+    public int characteristics() {
+        return 0;
+    }
+
+    @Override
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Gets the number of generations.
+     * @return the number of generations.
+     */
+    public int numberOfGenerations() {
+        return generations.length;
+    }
+
+    /**
+     * Gets the number of items merged into a generation before the oldest is expired.
+     * @return the number of items per generation.
+     */
+    public int getItemsPerGeneration() {
+        return itemsPerGeneration;
+    }
+
+    /**
+     * Gets the number of most recent items that are always found,
+     * {@code (generations - 1) * itemsPerGeneration}.
+     * @return the guaranteed size of the window.
+     */
+    public long windowSize() {
+        return (long) (generations.length - 1) * itemsPerGeneration;
+    }
+
+    /**
+     * Expires the oldest generation and makes it the newest. Use this to age the
+     * filter by time rather than by the number of items merged. The words of the
+     * expired generation are cleared, which takes time linear in the number of bits.
+     */
+    public void advance() {
+        current = current + 1 == generations.length ? 0 : current + 1;
+        Arrays.fill(generations[current], 0L);
+        count = 0;
+    }
+
+    @Override
+    public void clear() {
+        for (long[] generation : generations) {
+            Arrays.fill(generation, 0L);
+        }
+        count = 0;
+    }
+
+    /**
+     * Checks that the index is in the filter.
+     * @param x the index to check.
+     * @throws IllegalArgumentException if the index is not in the filter.
+     */
+    private void checkIndex(int x) {
+        if (x >= shape.getNumberOfBits() || x < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Filter only accepts values in the [0,%d) range", shape.getNumberOfBits()));
+        }
+    }
+
+    /**
+     * Records the index in the probes.
+     * @param x the index to record.
+     * @return true.
+     * @throws IllegalArgumentException if the index is not in the filter.
+     */
+    private boolean probeIndex(int x) {
+        checkIndex(x);
+        if (probeCount == probes.length) {
+            probes = Arrays.copyOf(probes, probeCount * 2 + 1);
+        }
+        probes[probeCount++] = x;
+        return true;
+    }
+
+    /**
+     * Gets the generation to merge the next item into, expiring the oldest if the newest is full.
+     * @return the bit map of the newest generation.
+     */
+    private long[] nextGeneration() {
+        if (count == itemsPerGeneration) {
+            advance();
+        }
+        count++;
+        return generations[current];
+    }
+
+    /**
+     * Merges the indices as one item into the newest generation.
+     */
+    @Override
+    public boolean merge(final IndexProducer indexProducer) {
+        Objects.requireNonNull(indexProducer, "indexProducer");
+        probeCount = 0;
+        indexProducer.forEachIndex(prober);
+        long[] generation = nextGeneration();
+        for (int i = 0; i < probeCount; i++) {
+            generation[BitMap.getLongIndex(probes[i])] |= BitMap.getLongBit(probes[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Merges the bit maps as one item into the newest generation.
+     */
+    @Override
+    public boolean merge(final BitMapProducer bitMapProducer) {
+        Objects.requireNonNull(bitMapProducer, "bitMapProducer");
+        long[] bitMaps = bitMapProducer.asBitMapArray();
+        if (bitMaps.length > 0) {
+            int last = bitMaps.length - 1;
+            if (last >= generations[0].length || (last == generations[0].length - 1
+                    && (bitMaps[last] & ~lastWordMask()) != 0)) {
+                throw new IllegalArgumentException(
+                        String.format("Filter only accepts values in the [0,%d) range", shape.getNumberOfBits()));
+            }
+        }
+        long[] generation = nextGeneration();
+        for (int i = 0; i < bitMaps.length; i++) {
+            generation[i] |= bitMaps[i];
+        }
+        return true;
+    }
+
+    /**
+     * Gets the mask of the bits of the last word that are in the filter.
+     * @return the mask.
+     */
+    private long lastWordMask() {
+        int bits = shape.getNumberOfBits() & 63;
+        return bits == 0 ? -1L : (1L << bits) - 1;
+    }
+
+    @Override
+    public boolean merge(final BloomFilter other) {
+        return merge((BitMapProducer) Objects.requireNonNull(other, "other"));
+    }
+
+    @Override
+    public boolean merge(final Hasher hasher) {
+        Objects.requireNonNull(hasher, "hasher");
+        // duplicate indices have the same effect as a single set.
+        return merge(hasher.indices(shape));
+    }
+
+    /**
+     * Tests if any generation contains all the indices. The generations are
+     * tested from the newest to the oldest.
+     */
+    @Override
+    public boolean contains(final IndexProducer indexProducer) {
+        Objects.requireNonNull(indexProducer, "indexProducer");
+        probeCount = 0;
+        indexProducer.forEachIndex(prober);
+        for (int g = 0; g < generations.length; g++) {
+            long[] generation = generations[current - g < 0 ? current - g + generations.length : current - g];
+            int i = 0;
+            while (i < probeCount
+                    && (generation[BitMap.getLongIndex(probes[i])] & BitMap.getLongBit(probes[i])) != 0) {
+                i++;
+            }
+            if (i == probeCount) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if any generation contains all the bits. The generations are tested
+     * from the newest to the oldest.
+     */
+    @Override
+    public boolean contains(final BitMapProducer bitMapProducer) {
+        Objects.requireNonNull(bitMapProducer, "bitMapProducer");
+        long[] bitMaps = bitMapProducer.asBitMapArray();
+        int words = generations[0].length;
+        for (int i = words; i < bitMaps.length; i++) {
+            if (bitMaps[i] != 0) {
+                return false;
+            }
+        }
+        int length = Math.min(words, bitMaps.length);
+        for (int g = 0; g < generations.length; g++) {
+            long[] generation = generations[current - g < 0 ? current - g + generations.length : current - g];
+            int i = 0;
+            while (i < length && (bitMaps[i] & ~generation[i]) == 0) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if any generation contains all the bits of the other filter. The
+     * generations are tested from the newest to the oldest.
+     */
+    @Override
+    public boolean contains(final BloomFilter other) {
+        return contains((BitMapProducer) Objects.requireNonNull(other, "other"));
+    }
+
+    @Override
+    public boolean contains(final Hasher hasher) {
+        Objects.requireNonNull(hasher, "hasher");
+        return contains(hasher.indices(shape));
+    }
+
+    @Override
+    public int cardinality() {
+        int[] result = { 0 };
+        forEachBitMap(word -> {
+            result[0] += Long.bitCount(word);
+            return true;
+        });
+        return result[0];
+    }
+
+    @Override
+    public boolean forEachBitMap(LongPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        for (int i = 0; i < generations[0].length; i++) {
+            long word = 0;
+            for (long[] generation : generations) {
+                word |= generation[i];
+            }
+            if (!consumer.test(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachIndex(IntPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        return IndexProducer.fromBitMapProducer(this).forEachIndex(consumer);
+    }
+
+    @Override
+    public AgePartitionedBloomFilter copy() {
+        return new AgePartitionedBloomFilter(this);
+    }
+}
@@ -0,0 +1,153 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A thread safe word buffer that stores the words in an AtomicLongArray.
+ * <p>
+ * Every update of a cell is a compare and set on the word that holds it so
+ * multiple threads may set, decrement and test cells without locking.
+ * </p>
+ */
+public class AtomicBufferManager extends AbstractWordBufferManager {
+    /**
+     * The buffer.
+     */
+    protected final AtomicLongArray buffer;
+    /**
+     * The number of cells that are set.
+     */
+    private final LongAdder count;
+
+    /**
+     * Constructor.
+     * @param shape the shape for the buffer.
+     */
+    public AtomicBufferManager(BufferShape shape) {
+        super(shape);
+        this.buffer = new AtomicLongArray(numberOfWords(shape));
+        this.count = new LongAdder();
+    }
+
+    @Override
+    public AtomicBufferManager copy() {
+        AtomicBufferManager result = new AtomicBufferManager(this.shape);
+        for (int i = 0; i < buffer.length(); i++) {
+            result.buffer.set(i, buffer.get(i));
+        }
+        result.count.add(count.sum());
+        return result;
+    }
+
+    /**
+     * Clears the buffer. Changes made by other threads while the buffer is being
+     * cleared may not be reflected in the cardinality.
+     */
+    @Override
+    public void clear() {
+        clearWords();
+        count.reset();
+    }
+
+    @Override
+    public int cardinality() {
+        return count.intValue();
+    }
+
+    @Override
+    public void addCardinality(int delta) {
+        count.add(delta);
+    }
+
+    @Override
+    protected void clearWords() {
+        for (int i = 0; i < buffer.length(); i++) {
+            buffer.set(i, 0L);
+        }
+    }
+
+    @Override
+    protected long getWord(int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    protected void setWord(int index, long value) {
+        buffer.set(index, value);
+    }
+
+    @Override
+    public void set(int entry) {
+        if (setUncounted(entry) != 0) {
+            count.increment();
+        }
+    }
+
+    @Override
+    public int setUncounted(int entry) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long cellMask = mask << offset;
+        long value = resetValue << offset;
+        long word;
+        do {
+            word = buffer.get(idx);
+            if ((word & cellMask) == value) {
+                return 0;
+            }
+        } while (!buffer.compareAndSet(idx, word, (word & ~cellMask) | value));
+        return (word & cellMask) == 0 ? 1 : 0;
+    }
+
+    @Override
+    public void decrement(int entry) {
+        if (decrementUncounted(entry) != 0) {
+            count.decrement();
+        }
+    }
+
+    @Override
+    public int decrementUncounted(int entry) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long cellMask = mask << offset;
+        long word;
+        do {
+            word = buffer.get(idx);
+            if ((word & cellMask) == 0) {
+                return 0;
+            }
+        } while (!buffer.compareAndSet(idx, word, word - (1L << offset)));
+        return (word & cellMask) == (1L << offset) ? -1 : 0;
+    }
+
+    @Override
+    protected void decrementWord(int index, long selector) {
+        long word;
+        long result;
+        do {
+            word = buffer.get(index);
+            result = decrementLanes(word, selector);
+            if (result == word) {
+                return;
+            }
+        } while (!buffer.compareAndSet(index, word, result));
+        count.add(-Long.bitCount(nonZeroLanes(word) & ~nonZeroLanes(result)));
+    }
+
+    @Override
+    public void func(int entry, int value, IntBinaryOperator f) {
+        int idx = entry >> wordShift;
+        int offset = offset(entry);
+        long cellMask = mask << offset;
+        long word;
+        long result;
+        do {
+            word = buffer.get(idx);
+            result = f.applyAsInt((int) ((word >>> offset) & mask), value) & mask;
+        } while (!buffer.compareAndSet(idx, word, (word & ~cellMask) | (result << offset)));
+        count.add(AbstractBufferManager.transition((word & cellMask) != 0, result != 0));
+    }
+}
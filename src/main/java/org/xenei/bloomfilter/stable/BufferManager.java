@@ -1,12 +1,27 @@
 package org.xenei.bloomfilter.stable;
 
+import java.util.Objects;
 import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.collections4.bloomfilter.BitMap;
+import org.apache.commons.collections4.bloomfilter.BitMapProducer;
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
 
 /**
- * A manager for Bloom filter buffers where the number of bits used for a cell is in the range of [1,8] bits.
- *
+ * A manager for Bloom filter buffers where the number of bits used for a cell is in the range of [1,16] bits.
+ * <p>
+ * The buffer produces the indices, or bit maps, of the cells that are set.
+ * </p>
  */
-public interface BufferManager {
+public interface BufferManager extends BitMapProducer, IndexProducer {
+
+    /**
+     * Gets the shape of the buffer.
+     * @return the BufferShape of the buffer.
+     */
+    BufferShape getShape();
 
     /**
      * gets the value of the cell.
@@ -27,6 +42,30 @@ public interface BufferManager {
      */
     void decrement(int entry);
 
+    /**
+     * Decrement the value of each of the first {@code count} entries by a default decrement value.
+     * An entry that appears more than once is decremented more than once.
+     * @param entries the cells to decrement.
+     * @param count the number of entries to decrement.
+     */
+    default void decrement(int[] entries, int count) {
+        for (int i = 0; i < count; i++) {
+            decrement(entries[i]);
+        }
+    }
+
+    /**
+     * Decrement the value of each of the {@code count} consecutive entries starting at {@code from}
+     * by a default decrement value. The entries must not extend past the end of the buffer.
+     * @param from the first cell to decrement.
+     * @param count the number of cells to decrement.
+     */
+    default void decrementRange(int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            decrement(i);
+        }
+    }
+
     /**
      * Tests if the cell is set.  Returns true if the cell is set.
      * @param entry the entry to check.
@@ -39,6 +78,41 @@ public interface BufferManager {
      */
     void clear();
 
+    /**
+     * Gets the number of cells that are set.
+     * <p>The count is maintained as cells change between zero and non-zero so this
+     * method does not scan the buffer.</p>
+     * @return the number of cells that are set.
+     */
+    int cardinality();
+
+    /**
+     * Sets the value of the entry to a default value without updating the count of
+     * cells that are set.
+     * <p>The count is not thread safe. Threads that update disjoint regions of the
+     * buffer use this method and {@link #decrementUncounted(int)}, sum the results,
+     * and pass the total to {@link #addCardinality(int)} once they have all finished.</p>
+     * @param entry the cell to set.
+     * @return the change in the number of cells that are set, 1 or 0.
+     */
+    int setUncounted(int entry);
+
+    /**
+     * Decrement the value of the entry by a default decrement value without updating
+     * the count of cells that are set.
+     * @param entry the cell to decrement.
+     * @return the change in the number of cells that are set, -1 or 0.
+     * @see #setUncounted(int)
+     */
+    int decrementUncounted(int entry);
+
+    /**
+     * Adds to the count of cells that are set.
+     * @param delta the sum of the changes returned by the uncounted methods.
+     * @see #setUncounted(int)
+     */
+    void addCardinality(int delta);
+
     /**
      * Applies the function to the value of the cell in the buffer and sets the value.
      * @param entry The cell to update.
@@ -52,5 +126,54 @@ public interface BufferManager {
      * @return A copy of the buffer.
      */
     BufferManager copy();
-    
+
+    /**
+     * Produces a bit map for every 64 cells where each bit is enabled if the cell is set.
+     * <p>The default implementation calls {@link #isSet(int)} for every cell.</p>
+     */
+    @Override
+    default boolean forEachBitMap(LongPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        final int cells = getShape().numberOfCells();
+        final int blocksm1 = BitMap.numberOfBitMaps(cells) - 1;
+        int i = 0;
+        long value;
+        // must break final block separate as the number of bits may not fall on the
+        // long boundary
+        for (int j = 0; j < blocksm1; j++) {
+            value = 0;
+            for (int k = 0; k < Long.SIZE; k++) {
+                if (isSet(i++)) {
+                    value |= BitMap.getLongBit(k);
+                }
+            }
+            if (!consumer.test(value)) {
+                return false;
+            }
+        }
+        // Final block
+        value = 0;
+        for (int k = 0; i < cells; k++) {
+            if (isSet(i++)) {
+                value |= BitMap.getLongBit(k);
+            }
+        }
+        return consumer.test(value);
+    }
+
+    /**
+     * Produces the index of every cell that is set.
+     * <p>The default implementation calls {@link #isSet(int)} for every cell.</p>
+     */
+    @Override
+    default boolean forEachIndex(IntPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        final int cells = getShape().numberOfCells();
+        for (int i = 0; i < cells; i++) {
+            if (isSet(i) && !consumer.test(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
\ No newline at end of file
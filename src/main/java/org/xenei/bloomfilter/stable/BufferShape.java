@@ -15,14 +15,14 @@ public interface BufferShape {
     byte bitsPerCell();
     
     /**
-     * The number of cells in a single byte.
+     * The number of cells in a single byte. Zero if a cell is wider than a byte.
      */
     default byte cellsPerByte() {
         return (byte) (Byte.SIZE / bitsPerCell());
     }
     /**
-     * The unsigned byte value to set the cell when it is enabled. By default resetValue = (2^bitsPerCell)-1.
-     * Must be in the range [0,255].
+     * The unsigned value to set the cell when it is enabled. By default resetValue = (2^bitsPerCell)-1.
+     * Must be in the range [1,65535].
      */
     int resetValue();
     
@@ -31,8 +31,8 @@ public interface BufferShape {
      * @param shape
      */
     public static void verifySettings(BufferShape shape) {
-        if (shape.resetValue() > 255 || shape.resetValue() < 1) {
-            throw new IllegalStateException("reset value must be in the range [1,255]");
+        if (shape.resetValue() > 0xFFFF || shape.resetValue() < 1) {
+            throw new IllegalStateException("reset value must be in the range [1,65535]");
         }
         if (Math.pow(2, shape.bitsPerCell()) < shape.resetValue()) {
             throw new IllegalStateException( String.format( "2^%s > %s", shape.bitsPerCell(), shape.resetValue()));
@@ -0,0 +1,154 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A BufferManager that packs cells of any width contiguously into 64-bit words.
+ * <p>
+ * Cell {@code i} occupies bits {@code [i*d, (i+1)*d)} of the buffer where
+ * {@code d} is the number of bits per cell, so a cell may span two words. No bits
+ * are wasted when {@code d} is not a power of 2, at the cost of a multiply and
+ * an occasional second word access per operation.
+ * </p>
+ */
+public class CompactBufferManager implements BufferManager {
+    /**
+     * The BufferShape of the buffer.
+     */
+    private final BufferShape shape;
+    /**
+     * The number of bits in a cell.
+     */
+    private final int width;
+    /**
+     * The mask for a single cell.
+     */
+    private final long mask;
+    /**
+     * The buffer.
+     */
+    protected final long[] buffer;
+    /**
+     * The number of cells that are set.
+     */
+    private int cardinality;
+
+    /**
+     * Calculates the number of 64-bit words required to store the cells of the shape.
+     * @param shape the buffer shape.
+     * @return the number of words required.
+     */
+    static int numberOfWords(BufferShape shape) {
+        return (int) ((shape.numberOfCells() * (long) shape.bitsPerCell() + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param shape the shape for the buffer.
+     */
+    public CompactBufferManager(BufferShape shape) {
+        this.shape = shape;
+        this.width = shape.bitsPerCell();
+        this.mask = (1L << width) - 1;
+        this.buffer = new long[numberOfWords(shape)];
+    }
+
+    @Override
+    public BufferShape getShape() {
+        return shape;
+    }
+
+    @Override
+    public CompactBufferManager copy() {
+        CompactBufferManager result = new CompactBufferManager(shape);
+        System.arraycopy(this.buffer, 0, result.buffer, 0, result.buffer.length);
+        result.cardinality = this.cardinality;
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(buffer, 0L);
+        cardinality = 0;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    public void addCardinality(int delta) {
+        cardinality += delta;
+    }
+
+    @Override
+    public int get(int entry) {
+        long bit = (long) entry * width;
+        int idx = (int) (bit >>> 6);
+        int offset = (int) bit & 0x3F;
+        long value = buffer[idx] >>> offset;
+        if (offset + width > Long.SIZE) {
+            value |= buffer[idx + 1] << (Long.SIZE - offset);
+        }
+        return (int) (value & mask);
+    }
+
+    /**
+     * Writes the value into the cell.
+     * @param entry the cell to write.
+     * @param value the value to write, must fit in the cell.
+     */
+    private void put(int entry, long value) {
+        long bit = (long) entry * width;
+        int idx = (int) (bit >>> 6);
+        int offset = (int) bit & 0x3F;
+        buffer[idx] = (buffer[idx] & ~(mask << offset)) | (value << offset);
+        int overflow = offset + width - Long.SIZE;
+        if (overflow > 0) {
+            int shift = width - overflow;
+            buffer[idx + 1] = (buffer[idx + 1] & ~(mask >>> shift)) | (value >>> shift);
+        }
+    }
+
+    @Override
+    public void set(int entry) {
+        cardinality += setUncounted(entry);
+    }
+
+    @Override
+    public int setUncounted(int entry) {
+        int before = get(entry);
+        put(entry, shape.resetValue());
+        return before == 0 ? 1 : 0;
+    }
+
+    @Override
+    public void decrement(int entry) {
+        cardinality += decrementUncounted(entry);
+    }
+
+    @Override
+    public int decrementUncounted(int entry) {
+        int value = get(entry);
+        if (value == 0) {
+            return 0;
+        }
+        put(entry, value - 1);
+        return value == 1 ? -1 : 0;
+    }
+
+    @Override
+    public boolean isSet(int entry) {
+        return get(entry) != 0;
+    }
+
+    @Override
+    public void func(int entry, int value, IntBinaryOperator f) {
+        int before = get(entry);
+        long result = f.applyAsInt(before, value) & mask;
+        cardinality += AbstractBufferManager.transition(before != 0, result != 0);
+        put(entry, result);
+    }
+}
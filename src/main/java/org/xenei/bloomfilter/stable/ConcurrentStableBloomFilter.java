@@ -0,0 +1,143 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.collections4.bloomfilter.BitMapProducer;
+import org.apache.commons.collections4.bloomfilter.BloomFilter;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * A stable Bloom filter that may be merged, decremented and queried by many
+ * threads at once without locking.
+ * <p>
+ * The cells are stored in an {@link AtomicBufferManager} so every cell update is a
+ * compare and set on the word that holds it. Each thread works through its own
+ * {@link StableBloomFilter} view of the shared buffer, so each thread has its own
+ * pseudo random generator for the decrement, split from the generator of the
+ * filter, and none of the per filter state is shared.
+ * </p>
+ */
+public class ConcurrentStableBloomFilter implements BloomFilter {
+    private final StableShape shape;
+    private final AtomicBufferManager buffer;
+    private final ThreadLocal<StableBloomFilter> view;
+    /**
+     * The generator that the generators of the views are split from.
+     */
+    private final IndexGenerator seeds;
+
+    /**
+     * Create a concurrent stable Bloom filter.
+     * @param shape the Stable shape.
+     */
+    public ConcurrentStableBloomFilter(StableShape shape) {
+        this(shape, new AtomicBufferManager(shape));
+    }
+
+    private ConcurrentStableBloomFilter(StableShape shape, AtomicBufferManager buffer) {
+        this.shape = shape;
+        this.buffer = buffer;
+        this.seeds = shape.randomEngine.create();
+        this.view = ThreadLocal.withInitial(() -> new StableBloomFilter(shape, buffer, split()));
+    }
+
+    /**
+     * Splits a generator for a new view. This is only called once per thread.
+     * @return the generator for the view.
+     */
+    private IndexGenerator split() {
+        synchronized (seeds) {
+            return seeds.split();
+        }
+    }
+
+    /**
+     * Gets the stableShape for this Bloom filter.
+     * @return the Stable shape.
+     */
+    public StableShape getStableShape() {
+        return shape;
+    }
+
+    @Override
+    public int characteristics() {
+        return SPARSE;
+    }
+
+    @Override
+    public Shape getShape() {
+        return shape.getShape();
+    }
+
+    @Override
+    public void clear() {
+        buffer.clear();
+    }
+
+    @Override
+    public boolean contains(IndexProducer indexProducer) {
+        return view.get().contains(indexProducer);
+    }
+
+    @Override
+    public int cardinality() {
+        return buffer.cardinality();
+    }
+
+    @Override
+    public boolean merge(IndexProducer indexProducer) {
+        return view.get().merge(indexProducer);
+    }
+
+    @Override
+    public boolean merge(BitMapProducer bitMapProducer) {
+        return view.get().merge(bitMapProducer);
+    }
+
+    @Override
+    public boolean merge(BloomFilter other) {
+        return view.get().merge(other);
+    }
+
+    @Override
+    public boolean merge(Hasher hasher) {
+        return view.get().merge(hasher);
+    }
+
+    /**
+     * Tests if the hasher is in the filter and then merges it.
+     * <p>Other threads may change the cells of the hasher between the test and the merge.</p>
+     * @param hasher the hasher to test and merge.
+     * @return {@code true} if the hasher was in the filter before the merge.
+     * @see StableBloomFilter#testAndMerge(Hasher)
+     */
+    public boolean testAndMerge(Hasher hasher) {
+        return view.get().testAndMerge(hasher);
+    }
+
+    @Override
+    public boolean forEachBitMap(LongPredicate consumer) {
+        return view.get().forEachBitMap(consumer);
+    }
+
+    @Override
+    public boolean forEachIndex(IntPredicate consumer) {
+        return view.get().forEachIndex(consumer);
+    }
+
+    @Override
+    public ConcurrentStableBloomFilter copy() {
+        return new ConcurrentStableBloomFilter(shape, buffer.copy());
+    }
+
+    /**
+     * Flatten the stable filter to a SimpleBloomFilter.
+     * @return a SimpleBloomFilter with equivalent bits enabled.
+     */
+    public BloomFilter flatten() {
+        return view.get().flatten();
+    }
+}
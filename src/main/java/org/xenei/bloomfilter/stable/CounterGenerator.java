@@ -0,0 +1,59 @@
+package org.xenei.bloomfilter.stable;
+
+/**
+ * Generates indices with a counter based generator. The value at position
+ * {@code i} of the sequence is the Murmur3 64 bit finalizer of {@code key + i}, so
+ * each value depends only on the key and its position and the iterations of a
+ * fill do not depend on one another.
+ */
+final class CounterGenerator extends IndexGenerator {
+    private final long key;
+    private long counter;
+
+    /**
+     * Constructs a generator.
+     * @param seed the seed. The key is the seed mixed with SplitMix64.
+     */
+    CounterGenerator(long seed) {
+        this.key = mix(seed);
+    }
+
+    /**
+     * The 64 bit finalizer of the Murmur3 hash.
+     * @param z the value to mix.
+     * @return the mixed value.
+     */
+    private static long fmix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private long nextLong() {
+        return fmix64(key + counter++);
+    }
+
+    @Override
+    public int nextInt(int limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public long nextLong(long limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public void fill(int[] out, int count, int limit) {
+        final long base = key + counter;
+        for (int i = 0; i < count; i++) {
+            out[i] = reduce(fmix64(base + i), limit);
+        }
+        counter += count;
+    }
+
+    @Override
+    public CounterGenerator split() {
+        return new CounterGenerator(nextLong());
+    }
+}
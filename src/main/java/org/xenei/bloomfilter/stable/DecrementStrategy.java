@@ -0,0 +1,28 @@
+package org.xenei.bloomfilter.stable;
+
+/**
+ * The strategies for selecting the {@code P} cells to decrement on each insertion.
+ * <p>
+ * The stable point depends only on how many cells are decremented, not on which
+ * ones, so the StableShape calculations are the same for every strategy. The
+ * consecutive strategies touch one or two cache lines per insertion instead of
+ * {@code P} random ones.
+ * </p>
+ */
+public enum DecrementStrategy {
+    /**
+     * Decrement {@code P} cells chosen at random. This is the strategy described
+     * in the paper and the default.
+     */
+    RANDOM,
+    /**
+     * Decrement {@code P} consecutive cells starting at a random cell, wrapping
+     * at the end of the buffer.
+     */
+    CONSECUTIVE,
+    /**
+     * Decrement the {@code P} cells after a sweep pointer and advance the pointer
+     * by {@code P}, wrapping at the end of the buffer.
+     */
+    SWEEP
+}
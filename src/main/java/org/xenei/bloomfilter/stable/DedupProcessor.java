@@ -0,0 +1,274 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Processor} that removes probable duplicates from a stream of items.
+ * <p>
+ * Items are requested from the upstream publisher in batches of the
+ * Deduplicator's batch size, and only while the downstream subscriber has
+ * outstanding demand, so backpressure is propagated. The queued items are tested
+ * and merged a batch at a time, as the Deduplicator's iterators do, and only the
+ * items that are not duplicates are passed on. A batch holds no more items than
+ * the outstanding demand so no tested item is held back.
+ * </p>
+ * <p>
+ * If the key function or the subscriber's {@code onNext} throws, the upstream
+ * subscription is cancelled and the exception is passed to the subscriber's
+ * {@code onError}.
+ * </p>
+ * <p>
+ * The filter is not thread safe. Rather than locking it, all the work is done in a
+ * drain loop that runs on one thread at a time: whichever thread delivers an item,
+ * a request or a terminal signal either runs the loop or, if another thread is
+ * already running it, leaves the work for that thread. The items received from
+ * upstream wait in a lock free queue until the loop takes them.
+ * </p>
+ * <p>The processor supports a single subscriber.</p>
+ * @param <T> the type of the items.
+ */
+public class DedupProcessor<T> implements Flow.Processor<T, T> {
+    private final Deduplicator<T> deduplicator;
+    private final int batchSize;
+    private final Queue<T> inbound = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of threads that have asked for the drain loop to run.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+    /**
+     * The outstanding demand of the downstream subscriber.
+     */
+    private final AtomicLong requested = new AtomicLong();
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super T> downstream;
+    private volatile boolean done;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+
+    /**
+     * The number of items requested from upstream and not yet taken from the
+     * queue. Only accessed by the drain loop.
+     */
+    private long outstanding;
+    /**
+     * {@code true} once the downstream subscriber has received a terminal signal.
+     * Only accessed by the drain loop.
+     */
+    private boolean terminated;
+    /**
+     * The batch of items being tested. Only accessed by the drain loop.
+     */
+    private final Deduplicator<T>.Batch batch;
+
+    /**
+     * Constructor.
+     * @param deduplicator the Deduplicator that tests and records the items.
+     */
+    public DedupProcessor(Deduplicator<T> deduplicator) {
+        this.deduplicator = Objects.requireNonNull(deduplicator, "deduplicator");
+        this.batchSize = deduplicator.getBatchSize();
+        this.batch = deduplicator.newBatch();
+    }
+
+    /**
+     * Gets the Deduplicator that tests and records the items.
+     * @return the Deduplicator.
+     */
+    public Deduplicator<T> getDeduplicator() {
+        return deduplicator;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("DedupProcessor supports a single subscriber"));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Request must be positive: " + n);
+                    done = true;
+                    cancelUpstream();
+                } else {
+                    requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription");
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(T item) {
+        inbound.offer(Objects.requireNonNull(item, "item"));
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = Objects.requireNonNull(throwable, "throwable");
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription s = upstream;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    /**
+     * Passes on the items that are not duplicates while there is demand, requests
+     * more from upstream and delivers the terminal signal.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super T> subscriber = downstream;
+            if (cancelled || terminated) {
+                inbound.clear();
+            } else if (subscriber != null) {
+                long demand = requested.get();
+                long emitted;
+                try {
+                    emitted = emit(subscriber, demand);
+                } catch (RuntimeException | Error e) {
+                    // rule 2.13, the subscription is cancelled and the error is signalled.
+                    batch.clear();
+                    terminated = true;
+                    inbound.clear();
+                    cancelUpstream();
+                    subscriber.onError(e);
+                    missed = wip.addAndGet(-missed);
+                    continue;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    demand = requested.addAndGet(-emitted);
+                }
+                // an error is not held back by queued items that have no demand.
+                // read done before error, they are written in the opposite order.
+                boolean d = done;
+                Throwable t = error;
+                if (d && !cancelled && (t != null || inbound.isEmpty())) {
+                    terminated = true;
+                    inbound.clear();
+                    if (t == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(t);
+                    }
+                } else if (demand > 0 && !done && !cancelled) {
+                    // keep up to one batch in flight while there is demand.
+                    Flow.Subscription s = upstream;
+                    if (s != null && outstanding <= batchSize / 2) {
+                        long n = batchSize - outstanding;
+                        outstanding += n;
+                        s.request(n);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Tests the queued items a batch at a time and passes on the items that are not
+     * duplicates. Only called by the drain loop.
+     * @param subscriber the downstream subscriber.
+     * @param demand the outstanding demand.
+     * @return the number of items passed on.
+     */
+    private long emit(Flow.Subscriber<? super T> subscriber, long demand) {
+        long emitted = 0;
+        while (emitted < demand && !cancelled) {
+            long limit = Math.min(batchSize, demand - emitted);
+            RuntimeException failure = null;
+            boolean empty = false;
+            try {
+                while (batch.size() < limit) {
+                    T item = inbound.poll();
+                    if (item == null) {
+                        empty = true;
+                        break;
+                    }
+                    outstanding--;
+                    batch.add(item);
+                }
+            } catch (RuntimeException e) {
+                // the items before the one that failed are still passed on.
+                failure = e;
+            }
+            if (batch.size() != 0) {
+                batch.process();
+                for (int i = 0; i < batch.size() && !cancelled; i++) {
+                    T next = batch.take(i);
+                    if (!batch.isDuplicate(i)) {
+                        subscriber.onNext(next);
+                        emitted++;
+                    }
+                }
+                batch.clear();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (empty) {
+                break;
+            }
+        }
+        return emitted;
+    }
+}
@@ -0,0 +1,301 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Removes probable duplicates from a sequence of items using a stable Bloom filter.
+ * <p>
+ * Each item is converted to a Hasher by the key function. An item is a duplicate
+ * if the filter contains its hasher; every item, duplicate or not, is merged into
+ * the filter. As the filter is stable, items that have not been seen recently are
+ * eventually forgotten and will be passed again.
+ * </p>
+ * <p>
+ * The iterators and streams read the source in batches. The key function's
+ * hasher writes the indices of each item of a batch into one array, and the batch
+ * is then checked and tested and merged with
+ * {@link StableBloomFilter#testAndMergeAll(int[], int, boolean[])}, which probes
+ * the cells of a group of items together before merging them in order. The index
+ * and result arrays are reused from batch to batch. The results are the same as
+ * calling {@link #isDuplicate(Object)} for each item.
+ * </p>
+ * <p>This class is not thread safe and the streams it creates are sequential.</p>
+ * @param <T> the type of the items.
+ */
+public class Deduplicator<T> {
+    /**
+     * The default number of items read from the source at a time.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final StableBloomFilter filter;
+    private final Function<? super T, ? extends Hasher> keyFunction;
+    private final int batchSize;
+
+    /**
+     * Constructs a Deduplicator with the default batch size.
+     * @param filter the filter that records the items seen.
+     * @param keyFunction the function to convert an item to a Hasher.
+     */
+    public Deduplicator(StableBloomFilter filter, Function<? super T, ? extends Hasher> keyFunction) {
+        this(filter, keyFunction, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param filter the filter that records the items seen.
+     * @param keyFunction the function to convert an item to a Hasher.
+     * @param batchSize the number of items to read from the source at a time. Must be greater than 0.
+     */
+    public Deduplicator(StableBloomFilter filter, Function<? super T, ? extends Hasher> keyFunction,
+            int batchSize) {
+        this.filter = Objects.requireNonNull(filter, "filter");
+        this.keyFunction = Objects.requireNonNull(keyFunction, "keyFunction");
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the filter that records the items seen.
+     * @return the filter.
+     */
+    public StableBloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Gets the number of items read from the source at a time.
+     * @return the batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Tests if the item is a probable duplicate and records it in the filter.
+     * @param item the item to test.
+     * @return {@code true} if the item is a probable duplicate.
+     */
+    public boolean isDuplicate(T item) {
+        return filter.testAndMerge(keyFunction.apply(item));
+    }
+
+    /**
+     * Creates an iterator over the items of the source that are not probable duplicates.
+     * @param source the items to deduplicate.
+     * @return an iterator of the unique items.
+     */
+    public Iterator<T> filter(Iterator<? extends T> source) {
+        return new DedupIterator(Objects.requireNonNull(source, "source"));
+    }
+
+    /**
+     * Creates a stream of the items of the source that are not probable duplicates.
+     * Closing the returned stream closes the source.
+     * @param source the items to deduplicate.
+     * @return a sequential stream of the unique items.
+     */
+    public Stream<T> filter(Stream<? extends T> source) {
+        Objects.requireNonNull(source, "source");
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(filter(source.iterator()),
+                Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(source::close);
+    }
+
+    /**
+     * Creates an empty batch for this Deduplicator.
+     * @return a new batch.
+     */
+    Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * A batch of items whose indices are tested and merged together. Items are
+     * added, the batch is processed, the results are read and the batch is cleared
+     * for reuse.
+     */
+    final class Batch {
+        private final Shape shape;
+        private final int k;
+        private final Object[] items;
+        private final int[] indices;
+        private final boolean[] duplicates;
+        private int indexCount;
+        private int itemStart;
+        private int size;
+
+        private final IntPredicate collector = this::collect;
+
+        private Batch() {
+            this.shape = filter.getShape();
+            this.k = shape.getNumberOfHashFunctions();
+            this.items = new Object[batchSize];
+            this.indices = new int[batchSize * k];
+            this.duplicates = new boolean[batchSize];
+        }
+
+        /**
+         * Adds an index of the current item to the batch.
+         * @param x the index.
+         * @return true.
+         */
+        private boolean collect(int x) {
+            if (indexCount - itemStart == k) {
+                throw new IllegalArgumentException(String.format("Hasher produced more than %s indices", k));
+            }
+            indices[indexCount++] = x;
+            return true;
+        }
+
+        /**
+         * Gets the number of items in the batch.
+         * @return the number of items.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Tests if the batch holds {@link Deduplicator#getBatchSize()} items.
+         * @return {@code true} if no more items may be added.
+         */
+        boolean isFull() {
+            return size == items.length;
+        }
+
+        /**
+         * Adds an item to the batch. If the key function throws, or its hasher does
+         * not produce {@code k} indices, the item is not added.
+         * @param item the item to add.
+         * @throws IllegalArgumentException if the hasher does not produce {@code k} indices.
+         */
+        void add(T item) {
+            itemStart = indexCount;
+            try {
+                keyFunction.apply(item).indices(shape).forEachIndex(collector);
+                if (indexCount - itemStart != k) {
+                    throw new IllegalArgumentException(
+                            String.format("Hasher produced %s indices, expected %s", indexCount - itemStart, k));
+                }
+            } catch (RuntimeException e) {
+                indexCount = itemStart;
+                throw e;
+            }
+            items[size++] = item;
+        }
+
+        /**
+         * Tests and merges the items added since the batch was cleared.
+         */
+        void process() {
+            filter.testAndMergeAll(indices, indexCount, duplicates);
+            indexCount = 0;
+        }
+
+        /**
+         * Tests if a processed item was a probable duplicate.
+         * @param i the position of the item in the batch.
+         * @return {@code true} if the item was a probable duplicate.
+         */
+        boolean isDuplicate(int i) {
+            return duplicates[i];
+        }
+
+        /**
+         * Takes an item from the batch, releasing the reference held by the batch.
+         * @param i the position of the item in the batch.
+         * @return the item.
+         */
+        @SuppressWarnings("unchecked")
+        T take(int i) {
+            T result = (T) items[i];
+            items[i] = null;
+            return result;
+        }
+
+        /**
+         * Empties the batch.
+         */
+        void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+            indexCount = 0;
+        }
+    }
+
+    /**
+     * An iterator that reads the source a batch at a time and skips the duplicates.
+     */
+    private class DedupIterator implements Iterator<T> {
+        private final Iterator<? extends T> source;
+        private final Batch batch = new Batch();
+        private int pos;
+        private T next;
+        private boolean hasNext;
+
+        DedupIterator(Iterator<? extends T> source) {
+            this.source = source;
+        }
+
+        /**
+         * Reads and processes the next batch from the source. If an item can not be
+         * added the items read before it are still processed.
+         */
+        private void fill() {
+            batch.clear();
+            pos = 0;
+            try {
+                while (!batch.isFull() && source.hasNext()) {
+                    batch.add(source.next());
+                }
+            } finally {
+                batch.process();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!hasNext) {
+                if (pos == batch.size()) {
+                    if (!source.hasNext()) {
+                        return false;
+                    }
+                    fill();
+                    continue;
+                }
+                T item = batch.take(pos);
+                if (!batch.isDuplicate(pos++)) {
+                    next = item;
+                    hasNext = true;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = false;
+            T result = next;
+            next = null;
+            return result;
+        }
+    }
+}
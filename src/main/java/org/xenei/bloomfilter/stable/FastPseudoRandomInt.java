@@ -4,7 +4,6 @@ import java.util.Objects;
 import java.util.Random;
 import java.util.function.IntPredicate;
 
-import org.apache.commons.collections4.bloomfilter.BitMap;
 import org.apache.commons.collections4.bloomfilter.Hasher;
 import org.apache.commons.collections4.bloomfilter.IndexProducer;
 import org.apache.commons.collections4.bloomfilter.Shape;
@@ -16,11 +15,17 @@ import org.apache.commons.collections4.bloomfilter.Shape;
  * wikipedia article <a href=
  * "https://en.wikipedia.org/wiki/Double_hashing#Enhanced_double_hashing">Double
  * Hashing</a> and random seeds for the initial value and the increment.
+ * <p>
+ * This class is not thread safe. The state is held in plain fields so a generator
+ * used by a single thread pays no memory fences. Threads that need decrement
+ * indices should each have their own generator, either a new one, which is
+ * randomly seeded, or one created by {@link #split()}.
+ * </p>
  */
-public class FastPseudoRandomInt implements Hasher {
-    private volatile long index;
-    private volatile long increment;
-    private volatile long count;
+public class FastPseudoRandomInt extends IndexGenerator implements Hasher {
+    private long index;
+    private long increment;
+    private long count;
 
     public FastPseudoRandomInt() {
         Random r = new Random();
@@ -29,14 +34,43 @@ public class FastPseudoRandomInt implements Hasher {
         count = 1;
     }
 
+    /**
+     * Constructs a generator with a known starting point so the sequence can be repeated.
+     * The seeds are mixed so that small or similar seeds still start with well
+     * distributed high bits, which the range reduction uses.
+     * @param index the initial index seed.
+     * @param increment the initial increment seed.
+     */
+    FastPseudoRandomInt(long index, long increment) {
+        this.index = mix(index);
+        this.increment = mix(increment);
+        this.count = 1;
+    }
+
+    /**
+     * Creates a new generator whose sequence is independent of this one. The seeds of
+     * the new generator are taken from the next value of this one and mixed by the
+     * constructor so that generators split from one another do not share a sequence.
+     * <p>Use this to give each thread or shard its own generator from a single seeded one.</p>
+     * @return a new generator.
+     */
+    @Override
+    public FastPseudoRandomInt split() {
+        long seed = index;
+        index -= increment;
+        increment -= count++;
+        return new FastPseudoRandomInt(seed, seed + 0x9E3779B97F4A7C15L);
+    }
+
     /**
      * Generates a sudo random number in the range [0,limit).
      *
      * @param limit The limit for the index value (exclusive).
      * @return a pseudo random integer.
      */
+    @Override
     public int nextInt(int limit) {
-        int idx = BitMap.mod(index, limit);
+        int idx = reduce(index, limit);
         // Update index and handle wrapping
         index -= increment;
 
@@ -46,6 +80,44 @@ public class FastPseudoRandomInt implements Hasher {
         return idx;
     }
 
+    /**
+     * Fills the start of the array with sudo random numbers in the range [0,limit).
+     * The numbers are those that {@code count} calls to {@link #nextInt(int)} would
+     * have returned. Nothing is allocated.
+     *
+     * @param out the array to fill.
+     * @param count the number of values to generate.
+     * @param limit The limit for the index value (exclusive). Must be greater than 0.
+     */
+    @Override
+    public void fill(int[] out, int count, int limit) {
+        long idx = index;
+        long inc = increment;
+        long c = this.count;
+        for (int i = 0; i < count; i++) {
+            out[i] = reduce(idx, limit);
+            idx -= inc;
+            inc -= c++;
+        }
+        index = idx;
+        increment = inc;
+        this.count = c;
+    }
+
+    /**
+     * Generates a sudo random number in the range [0,limit).
+     *
+     * @param limit The limit for the index value (exclusive). Must be greater than 0.
+     * @return a pseudo random long.
+     */
+    @Override
+    public long nextLong(long limit) {
+        long idx = reduce(index, limit);
+        index -= increment;
+        increment -= count++;
+        return idx;
+    }
+
     @Override
     public IndexProducer indices(final Shape shape) {
         Objects.requireNonNull(shape, "shape");
@@ -80,15 +152,9 @@ public class FastPseudoRandomInt implements Hasher {
 
             @Override
             public int[] asIndexArray() {
-                final int[] result = new int[shape.getNumberOfHashFunctions()];
-                final int[] idx = new int[1];
-
                 // This method needs to return duplicate indices
-
-                forEachIndex(i -> {
-                    result[idx[0]++] = i;
-                    return true;
-                });
+                final int[] result = new int[shape.getNumberOfHashFunctions()];
+                fill(result, result.length, shape.getNumberOfBits());
                 return result;
             }
         };
@@ -0,0 +1,81 @@
+package org.xenei.bloomfilter.stable;
+
+/**
+ * A source of pseudo random cell indices for the decrements of a stable Bloom filter.
+ * <p>
+ * Generators are not thread safe. Each thread should have its own, created by a
+ * {@link RandomEngine} or by {@link #split()} from another generator.
+ * </p>
+ * @see RandomEngine
+ */
+public abstract class IndexGenerator {
+
+    /**
+     * Generates a sudo random number in the range [0,limit).
+     *
+     * @param limit The limit for the index value (exclusive). Must be greater than 0.
+     * @return a pseudo random integer.
+     */
+    public abstract int nextInt(int limit);
+
+    /**
+     * Fills the start of the array with sudo random numbers in the range [0,limit).
+     * The numbers are those that {@code count} calls to {@link #nextInt(int)} would
+     * have returned. Nothing is allocated.
+     *
+     * @param out the array to fill.
+     * @param count the number of values to generate.
+     * @param limit The limit for the index value (exclusive). Must be greater than 0.
+     */
+    public abstract void fill(int[] out, int count, int limit);
+
+    /**
+     * Generates a sudo random number in the range [0,limit) for filters that may have
+     * more than {@code Integer.MAX_VALUE} cells.
+     *
+     * @param limit The limit for the index value (exclusive). Must be greater than 0.
+     * @return a pseudo random long.
+     */
+    public abstract long nextLong(long limit);
+
+    /**
+     * Creates a new generator of the same kind whose sequence is independent of this one.
+     * <p>Use this to give each thread or shard its own generator from a single seeded one.</p>
+     * @return a new generator.
+     */
+    public abstract IndexGenerator split();
+
+    /**
+     * Maps the high 32 bits of the value onto the range [0,limit) with a multiply and
+     * a shift rather than a division.
+     * @param value the value to reduce.
+     * @param limit The limit for the result (exclusive). Must be greater than 0.
+     * @return the reduced value.
+     */
+    static int reduce(long value, int limit) {
+        return (int) (((value >>> 32) * limit) >>> 32);
+    }
+
+    /**
+     * Maps the value onto the range [0,limit) with the high 64 bits of the unsigned
+     * 128 bit product rather than a division.
+     * @param value the value to reduce.
+     * @param limit The limit for the result (exclusive). Must be greater than 0.
+     * @return the reduced value.
+     */
+    static long reduce(long value, long limit) {
+        // multiplyHigh is signed, a negative value is 2^64 less than the unsigned one.
+        return Math.multiplyHigh(value, limit) + ((value >> 63) & limit);
+    }
+
+    /**
+     * The 64 bit finalizer of the SplitMix64 generator.
+     * @param z the value to mix.
+     * @return the mixed value.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
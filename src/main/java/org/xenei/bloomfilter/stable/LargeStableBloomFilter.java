@@ -0,0 +1,194 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+/**
+ * A stable Bloom filter that may have more than {@code Integer.MAX_VALUE} cells.
+ * <p>
+ * The commons {@code BloomFilter} and {@code Hasher} interfaces address bits with
+ * an int so this filter does not implement them. Items are added and tested by a
+ * pair of 64-bit hash values from which the {@code k} cells are generated with
+ * enhanced double hashing over the full long range, or by a byte array that is
+ * hashed with the 128-bit MurmurHash3.
+ * </p>
+ * @see StableBloomFilter
+ */
+public class LargeStableBloomFilter {
+    private final LargeStableShape shape;
+    private final IndexGenerator idxFactory;
+    private final LongBufferManager buffer;
+    /**
+     * The first cell of the next decrement when using the SWEEP strategy.
+     */
+    private long sweep;
+
+    /**
+     * Create a large stable Bloom filter with heap segments.
+     * @param shape the shape of the filter.
+     */
+    public LargeStableBloomFilter(LargeStableShape shape) {
+        this(shape, new SegmentedBufferManager(shape));
+    }
+
+    /**
+     * Create a large stable Bloom filter that stores its cells in the buffer.
+     * <p>The buffer must have been created for the shape and is used directly, not copied.</p>
+     * @param shape the shape of the filter.
+     * @param buffer the buffer to store the cells in.
+     */
+    public LargeStableBloomFilter(LargeStableShape shape, LongBufferManager buffer) {
+        this.shape = Objects.requireNonNull(shape, "shape");
+        this.buffer = Objects.requireNonNull(buffer, "buffer");
+        if (buffer.numberOfCells() != shape.numberOfCells()) {
+            throw new IllegalArgumentException(String.format("Buffer has %s cells, shape requires %s",
+                    buffer.numberOfCells(), shape.numberOfCells()));
+        }
+        this.idxFactory = shape.randomEngine.create();
+    }
+
+    /**
+     * Gets the shape of this Bloom filter.
+     * @return the shape.
+     */
+    public LargeStableShape getStableShape() {
+        return shape;
+    }
+
+    /**
+     * Clears the filter.
+     */
+    public void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Gets the number of cells that are set.
+     * @return the number of cells that are set.
+     */
+    public long cardinality() {
+        return buffer.cardinality();
+    }
+
+    /**
+     * Estimates the number of items in the filter from the cardinality.
+     * @return the estimated number of items.
+     */
+    public double estimateN() {
+        double m = shape.numberOfCells();
+        return -(m / shape.getNumberOfHashFunctions()) * Math.log1p(-cardinality() / m);
+    }
+
+    /**
+     * Produces the index of every cell that is set.
+     * @param consumer the consumer of the indices.
+     * @return {@code false} if the consumer returned {@code false}, {@code true} otherwise.
+     */
+    public boolean forEachIndex(LongPredicate consumer) {
+        return buffer.forEachIndex(consumer);
+    }
+
+    /**
+     * Merges the item with the hash values into the filter.
+     * @param initial the initial hash value.
+     * @param increment the hash value used as the increment.
+     */
+    public void merge(long initial, long increment) {
+        decrement();
+        forEachIndex(initial, increment, x -> {
+            buffer.set(x);
+            return true;
+        });
+    }
+
+    /**
+     * Merges the item into the filter. The item is hashed with the 128-bit MurmurHash3.
+     * @param item the item to merge.
+     */
+    public void merge(byte[] item) {
+        long[] hash = MurmurHash3.hash128x64(item);
+        merge(hash[0], hash[1]);
+    }
+
+    /**
+     * Tests if the item with the hash values is in the filter.
+     * @param initial the initial hash value.
+     * @param increment the hash value used as the increment.
+     * @return {@code true} if all the cells for the item are set.
+     */
+    public boolean contains(long initial, long increment) {
+        return forEachIndex(initial, increment, buffer::isSet);
+    }
+
+    /**
+     * Tests if the item is in the filter. The item is hashed with the 128-bit MurmurHash3.
+     * @param item the item to test.
+     * @return {@code true} if all the cells for the item are set.
+     */
+    public boolean contains(byte[] item) {
+        long[] hash = MurmurHash3.hash128x64(item);
+        return contains(hash[0], hash[1]);
+    }
+
+    /**
+     * Makes a copy of the filter.
+     * @return a copy of the filter.
+     */
+    public LargeStableBloomFilter copy() {
+        return new LargeStableBloomFilter(shape, buffer.copy());
+    }
+
+    /**
+     * Generates the cells for the hash values with enhanced double hashing.
+     * @param initial the initial hash value.
+     * @param increment the hash value used as the increment.
+     * @param consumer the consumer of the cells.
+     * @return {@code false} if the consumer returned {@code false}, {@code true} otherwise.
+     */
+    private boolean forEachIndex(long initial, long increment, LongPredicate consumer) {
+        final long m = shape.numberOfCells();
+        final int k = shape.getNumberOfHashFunctions();
+        long index = Long.remainderUnsigned(initial, m);
+        long inc = Long.remainderUnsigned(increment, m);
+        for (int i = 0; i < k; i++) {
+            if (!consumer.test(index)) {
+                return false;
+            }
+            // Update index and handle wrapping
+            index -= inc;
+            index = index < 0 ? index + m : index;
+
+            // Incorporate the counter into the increment to create a
+            // tetrahedral number additional term, and handle wrapping.
+            inc -= i;
+            inc = inc < 0 ? inc + m : inc;
+        }
+        return true;
+    }
+
+    /**
+     * Decrements the cells selected by the decrement strategy of the shape.
+     */
+    private void decrement() {
+        final long cells = shape.numberOfCells();
+        if (shape.decrementStrategy == DecrementStrategy.RANDOM) {
+            for (int i = 0; i < shape.decrementCount; i++) {
+                buffer.decrement(idxFactory.nextLong(cells));
+            }
+            return;
+        }
+        long next;
+        if (shape.decrementStrategy == DecrementStrategy.CONSECUTIVE) {
+            next = idxFactory.nextLong(cells);
+        } else {
+            next = sweep;
+            sweep = (sweep + shape.decrementCount) % cells;
+        }
+        for (int i = 0; i < shape.decrementCount; i++) {
+            buffer.decrement(next);
+            next = next + 1 == cells ? 0 : next + 1;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Objects;
+
+/**
+ * The shape of a stable Bloom filter that may have more than {@code Integer.MAX_VALUE} cells.
+ * <p>
+ * The calculations are the same as for {@link StableShape} but the number of
+ * cells ({@code m}) is a long.
+ * </p>
+ * @see LargeStableBloomFilter
+ */
+public class LargeStableShape {
+    /**
+     * The number of cells.
+     */
+    private final long m;
+    /**
+     * The number of cells set on each insertion.
+     */
+    private final int k;
+    /**
+     * The value to set the cell when it is enabled. In the paper this is called
+     * "Max".
+     */
+    private final int resetValue;
+    /**
+     * The number of bits per cell/entry.
+     */
+    private final byte bitsPerCell;
+    /**
+     * The number of cells to decrement on each insertion.
+     */
+    public final int decrementCount;
+    /**
+     * The cardinality expected when filter is stable.
+     */
+    public final long expectedCardinality;
+    /**
+     * The false positive rate when filter is stable.
+     */
+    public final double fps;
+    /**
+     * The stable point is defined as the limit of the
+     * expected fraction of 0s in an SBF when the number of iterations goes to
+     * infinity.
+     */
+    public final double stablePoint;
+    /**
+     * How the cells to decrement are selected.
+     */
+    public final DecrementStrategy decrementStrategy;
+    /**
+     * The pseudo random generator that selects the cells to decrement.
+     */
+    public final RandomEngine randomEngine;
+
+    /**
+     * Constructs an empty builder.
+     * @return an empty builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private LargeStableShape(double fps, long m, int k, int p, int max, DecrementStrategy decrementStrategy,
+            RandomEngine randomEngine) {
+        this.m = m;
+        this.k = k;
+        this.resetValue = max;
+        this.decrementCount = p;
+        this.fps = fps;
+        this.bitsPerCell = (byte) (Integer.SIZE - Integer.numberOfLeadingZeros(max));
+        this.stablePoint = StableShape.calculateStablePoint(m, k, p, max);
+        this.expectedCardinality = (long) Math.ceil((1.0 - stablePoint) * m);
+        this.decrementStrategy = decrementStrategy;
+        this.randomEngine = randomEngine;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "LargeStableShape[k=%s m=%s fps=%s stable point=%s expected cardinality=%s decrement count=%s reset value=%s decrement strategy=%s random engine=%s]",
+                k, m, fps, stablePoint, expectedCardinality, decrementCount, resetValue, decrementStrategy,
+                randomEngine);
+    }
+
+    /**
+     * Gets the number of hash functions used to construct the filter.
+     * This is also known as {@code k}.
+     * @return the number of hash functions used to construct the filter ({@code k}).
+     */
+    public int getNumberOfHashFunctions() {
+        return k;
+    }
+
+    /**
+     * Gets the number of cells in the filter.
+     * This is also known as {@code m}.
+     * @return the number of cells ({@code m}).
+     */
+    public long numberOfCells() {
+        return m;
+    }
+
+    /**
+     * The number of bits per cell.
+     * @return the number of bits per cell.
+     */
+    public byte bitsPerCell() {
+        return bitsPerCell;
+    }
+
+    /**
+     * The value to set the cell when it is enabled.
+     * @return the reset value.
+     */
+    public int resetValue() {
+        return resetValue;
+    }
+
+    /**
+     * Creates the shape of a buffer holding a section of the cells.
+     * @param cells the number of cells in the section.
+     * @return the BufferShape for the section.
+     */
+    BufferShape segmentShape(int cells) {
+        BufferShape result = new BufferShape() {
+            @Override
+            public int numberOfCells() {
+                return cells;
+            }
+
+            @Override
+            public byte bitsPerCell() {
+                return bitsPerCell;
+            }
+
+            @Override
+            public int resetValue() {
+                return resetValue;
+            }
+        };
+        BufferShape.verifySettings(result);
+        return result;
+    }
+
+    /**
+     * A builder class for the LargeStableShape.
+     */
+    public static class Builder {
+        private static final int UNSET = 0;
+        // false positive stable rate
+        private double fps = UNSET;
+        // number of hashes
+        private int k = UNSET;
+        // number of cells
+        private long m = UNSET;
+        // number of cells to decrement
+        private int p = UNSET;
+        // value to reset to
+        private int max = 2;
+        // how to select the cells to decrement
+        private DecrementStrategy decrementStrategy = DecrementStrategy.RANDOM;
+        // the generator of the cells to decrement
+        private RandomEngine randomEngine = RandomEngine.SPLIT_MIX;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the expected false positive rate.  if not set will be calculated from @{code k}.
+         * @param fps the expected false positive rate.
+         * @return this  for chaining.
+         */
+        public Builder setFps(double fps) {
+            this.fps = fps;
+            return this;
+        }
+
+        /**
+         * Sets the number of hashes for each Bloom filter. if not set will be calculated from @{code fps}.
+         * @param k the number of hashes for each filter.
+         * @return this for chaining.
+         */
+        public Builder setK(int k) {
+            this.k = k;
+            return this;
+        }
+
+        /**
+         * Sets the number of cells.  Must be greater than 1.
+         * @param m the number of cells.
+         * @return this for chaining.
+         */
+        public Builder setM(long m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Sets the number of cells to decrement on each insertion.
+         * @param p the number of cells to decrement on each insertion.
+         * @return this for chaining.
+         */
+        public Builder setP(int p) {
+            this.p = p;
+            return this;
+        }
+
+        /**
+         * Sets the value to set in each cell on insertion.  Must be in the range [1,65535].
+         * @param max the value to set each cell on insertion.
+         * @return this for chaining.
+         */
+        public Builder setMax(int max) {
+            this.max = max;
+            return this;
+        }
+
+        /**
+         * Sets the strategy for selecting the cells to decrement on each insertion.
+         * Defaults to {@link DecrementStrategy#RANDOM}.
+         * @param decrementStrategy the decrement strategy.
+         * @return this for chaining.
+         */
+        public Builder setDecrementStrategy(DecrementStrategy decrementStrategy) {
+            this.decrementStrategy = Objects.requireNonNull(decrementStrategy, "decrementStrategy");
+            return this;
+        }
+
+        /**
+         * Sets the pseudo random generator that selects the cells to decrement.
+         * Defaults to {@link RandomEngine#SPLIT_MIX}.
+         * @param randomEngine the random engine.
+         * @return this for chaining.
+         */
+        public Builder setRandomEngine(RandomEngine randomEngine) {
+            this.randomEngine = Objects.requireNonNull(randomEngine, "randomEngine");
+            return this;
+        }
+
+        private void checkSettings() {
+            if (m <= 1) {
+                throw new IllegalArgumentException("M must be greater than 1");
+            }
+            if (k <= UNSET && fps <= UNSET) {
+                throw new IllegalArgumentException("Either K or Fps must be greater than 0");
+            }
+            if (max <= UNSET || max > 0xFFFF) {
+                throw new IllegalArgumentException("Max must be in the range [1,65535]");
+            }
+            if (k <= UNSET) {
+                k = StableShape.calculateK(fps);
+            }
+            if (fps <= UNSET) {
+                fps = 1 / Math.pow(2, k);
+            }
+            if (p <= UNSET) {
+                p = StableShape.calculateP(fps, m, k, max);
+            }
+        }
+
+        /**
+         * Builds the LargeStableShape.
+         * @return a new LargeStableShape.
+         */
+        public LargeStableShape build() {
+            checkSettings();
+            return new LargeStableShape(fps, m, k, p, max, decrementStrategy, randomEngine);
+        }
+    }
+}
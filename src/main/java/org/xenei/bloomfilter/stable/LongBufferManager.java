@@ -0,0 +1,67 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.function.LongPredicate;
+
+/**
+ * A manager for Bloom filter buffers that are addressed by a long and may hold
+ * more than {@code Integer.MAX_VALUE} cells.
+ * @see BufferManager
+ */
+public interface LongBufferManager {
+
+    /**
+     * Gets the number of cells in the buffer.
+     * @return the number of cells.
+     */
+    long numberOfCells();
+
+    /**
+     * gets the value of the cell.
+     * @param entry the cell to retrieve.
+     * @return the value of the cell.
+     */
+    int get(long entry);
+
+    /**
+     * Sets the value of the entry to a default value.
+     * @param entry the cell to set.
+     */
+    void set(long entry);
+
+    /**
+     * Decrement the value of the entry by a default decrement value.
+     * @param entry the cell to decrement.
+     */
+    void decrement(long entry);
+
+    /**
+     * Tests if the cell is set.  Returns true if the cell is set.
+     * @param entry the entry to check.
+     * @return {@code true} if the entry is set, {@code false} otherwise.
+     */
+    boolean isSet(long entry);
+
+    /**
+     * Clears the entire buffer, effectively empties the Bloom filter.
+     */
+    void clear();
+
+    /**
+     * Gets the number of cells that are set.
+     * @return the number of cells that are set.
+     */
+    long cardinality();
+
+    /**
+     * Produces the index of every cell that is set.
+     * @param consumer the consumer of the indices.
+     * @return {@code false} if the consumer returned {@code false}, {@code true} otherwise.
+     */
+    boolean forEachIndex(LongPredicate consumer);
+
+    /**
+     * Makes a copy of the buffer.
+     * @return A copy of the buffer.
+     */
+    LongBufferManager copy();
+}
@@ -0,0 +1,313 @@
+package org.xenei.bloomfilter.stable;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A word buffer that stores the words in a memory mapped file.
+ * <p>
+ * The file starts with a small header that records the StableShape the buffer was
+ * created with, followed by the packed words. Opening an existing file maps it
+ * without reading the cells so the filter is ready immediately and the operating
+ * system pages the cells in as they are used. A filter built on the buffer
+ * therefore survives a restart without having to converge on the stable point
+ * again.
+ * </p>
+ * <p>Header layout (little endian):</p>
+ * <pre>
+ *  0 magic   (long)
+ *  8 version (int)
+ * 12 m       (int)
+ * 16 k       (int)
+ * 20 p       (int)
+ * 24 max     (int)
+ * 28 cardinality (int)
+ * 32 fps     (double)
+ * 40 decrement strategy (int)
+ * 44 cells per block (int, 0 if not blocked)
+ * 48 random engine (int)
+ * 52 reserved to 64
+ * </pre>
+ * <p>
+ * The cardinality is written when the buffer is closed and is -1 while the file
+ * is open. If a file is opened that was not closed cleanly the cardinality is
+ * recounted from the cells.
+ * </p>
+ * <p>
+ * Version 1 files have no cardinality and the fields from offset 40 are reserved.
+ * They are opened as filters that are not blocked, use the RANDOM decrement
+ * strategy and the ENHANCED_DOUBLE_HASH engine, as all version 1 filters did. The
+ * cardinality is recounted and the header is rewritten as the current version.
+ * </p>
+ */
+public class MappedBufferManager extends AbstractWordBufferManager implements AutoCloseable {
+    /**
+     * The magic number at the start of the file: "StblBlmF".
+     */
+    static final long MAGIC = 0x466D6C426C627453L;
+    /**
+     * The version of the file layout.
+     */
+    static final int VERSION = 2;
+    /**
+     * The version of the file layout before the cardinality, decrement strategy,
+     * block and random engine were recorded.
+     */
+    static final int VERSION_1 = 1;
+    /**
+     * The size of the header in bytes. The words start at this offset.
+     */
+    static final int HEADER_SIZE = 64;
+
+    private static final int VERSION_POS = 8;
+    private static final int M_POS = 12;
+    private static final int K_POS = 16;
+    private static final int P_POS = 20;
+    private static final int MAX_POS = 24;
+    private static final int CARDINALITY_POS = 28;
+    private static final int FPS_POS = 32;
+    private static final int STRATEGY_POS = 40;
+    private static final int BLOCK_POS = 44;
+    private static final int ENGINE_POS = 48;
+
+    /**
+     * The mapped buffer. {@code null} once the buffer has been released.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Creates a new file for the shape and maps it.
+     * @param path the file to create. Must not exist.
+     * @param shape the shape of the filter.
+     * @return the MappedBufferManager for the new file.
+     * @throws IOException on error, including the file already existing.
+     */
+    public static MappedBufferManager create(Path path, StableShape shape) throws IOException {
+        Objects.requireNonNull(path, "path");
+        Objects.requireNonNull(shape, "shape");
+        MappedBufferManager result = new MappedBufferManager(shape,
+                map(path, fileSize(shape), StandardOpenOption.CREATE_NEW));
+        result.writeHeader();
+        result.buffer.putInt(CARDINALITY_POS, -1);
+        return result;
+    }
+
+    /**
+     * Opens and maps an existing file. The shape is read from the file header.
+     * @param path the file to open.
+     * @return the MappedBufferManager for the file.
+     * @throws IOException on error or if the file is not a stable Bloom filter buffer.
+     */
+    public static MappedBufferManager open(Path path) throws IOException {
+        Objects.requireNonNull(path, "path");
+        long size = Files.size(path);
+        if (size < HEADER_SIZE) {
+            throw new IOException(String.format("%s is too short to be a stable Bloom filter", path));
+        }
+        MappedByteBuffer header;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        }
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        StableShape shape = readShape(path, header);
+        if (size != fileSize(shape)) {
+            throw new IOException(
+                    String.format("%s has length %s but the shape requires %s", path, size, fileSize(shape)));
+        }
+        MappedBufferManager result = new MappedBufferManager(shape, map(path, size));
+        int cardinality = -1;
+        if (header.getInt(VERSION_POS) == VERSION_1) {
+            result.writeHeader();
+        } else {
+            cardinality = result.buffer.getInt(CARDINALITY_POS);
+        }
+        result.cardinality = cardinality < 0 ? result.countSetCells() : cardinality;
+        result.buffer.putInt(CARDINALITY_POS, -1);
+        return result;
+    }
+
+    /**
+     * Opens and maps an existing file or, if the file does not exist, creates it.
+     * @param path the file to open.
+     * @param shape the expected shape of the filter.
+     * @return the MappedBufferManager for the file.
+     * @throws IOException on error or if the existing file was created with a different shape.
+     */
+    public static MappedBufferManager openOrCreate(Path path, StableShape shape) throws IOException {
+        Objects.requireNonNull(shape, "shape");
+        if (!Files.exists(path)) {
+            return create(path, shape);
+        }
+        MappedBufferManager result = open(path);
+        if (!sameShape(shape, result.getStableShape())) {
+            result.close();
+            throw new IOException(String.format("%s was created with %s not %s", path, result.shape, shape));
+        }
+        return result;
+    }
+
+    private static boolean sameShape(StableShape a, StableShape b) {
+        return a.numberOfCells() == b.numberOfCells() && a.getNumberOfHashFunctions() == b.getNumberOfHashFunctions()
+                && a.decrementShape.getNumberOfHashFunctions() == b.decrementShape.getNumberOfHashFunctions()
+                && a.resetValue() == b.resetValue() && Double.compare(a.fps, b.fps) == 0
+                && a.decrementStrategy == b.decrementStrategy && a.cellsPerBlock == b.cellsPerBlock
+                && a.randomEngine == b.randomEngine;
+    }
+
+    private static long fileSize(StableShape shape) throws IOException {
+        long size = HEADER_SIZE + (long) numberOfWords(shape) * Long.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Shape requires %s bytes, a mapped buffer may hold at most %s", size,
+                    Integer.MAX_VALUE));
+        }
+        return size;
+    }
+
+    private static MappedByteBuffer map(Path path, long size, OpenOption... options) throws IOException {
+        OpenOption[] opts = new OpenOption[options.length + 2];
+        opts[0] = StandardOpenOption.READ;
+        opts[1] = StandardOpenOption.WRITE;
+        System.arraycopy(options, 0, opts, 2, options.length);
+        try (FileChannel channel = FileChannel.open(path, opts)) {
+            MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            result.order(ByteOrder.LITTLE_ENDIAN);
+            return result;
+        }
+    }
+
+    private static StableShape readShape(Path path, MappedByteBuffer header) throws IOException {
+        if (header.getLong(0) != MAGIC) {
+            throw new IOException(String.format("%s is not a stable Bloom filter", path));
+        }
+        int version = header.getInt(VERSION_POS);
+        // version 1 filters were not blocked and used the RANDOM strategy and ENHANCED_DOUBLE_HASH engine.
+        int strategy = DecrementStrategy.RANDOM.ordinal();
+        int cellsPerBlock = 0;
+        int engine = RandomEngine.ENHANCED_DOUBLE_HASH.ordinal();
+        if (version == VERSION) {
+            strategy = header.getInt(STRATEGY_POS);
+            cellsPerBlock = header.getInt(BLOCK_POS);
+            engine = header.getInt(ENGINE_POS);
+        } else if (version != VERSION_1) {
+            throw new IOException(String.format("%s has unsupported version %s", path, version));
+        }
+        if (strategy < 0 || strategy >= DecrementStrategy.values().length) {
+            throw new IOException(String.format("%s has unsupported decrement strategy %s", path, strategy));
+        }
+        if (engine < 0 || engine >= RandomEngine.values().length) {
+            throw new IOException(String.format("%s has unsupported random engine %s", path, engine));
+        }
+        StableShape result;
+        try {
+            result = StableShape.builder().setM(header.getInt(M_POS)).setK(header.getInt(K_POS))
+                    .setP(header.getInt(P_POS)).setMax(header.getInt(MAX_POS)).setFps(header.getDouble(FPS_POS))
+                    .setDecrementStrategy(DecrementStrategy.values()[strategy]).setBlocked(cellsPerBlock != 0)
+                    .setRandomEngine(RandomEngine.values()[engine]).build();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException(String.format("%s has an invalid header: %s", path, e.getMessage()), e);
+        }
+        if (result.cellsPerBlock != cellsPerBlock || result.numberOfCells() != header.getInt(M_POS)) {
+            throw new IOException(String.format("%s has an invalid header: %s cells per block", path, cellsPerBlock));
+        }
+        return result;
+    }
+
+    private MappedBufferManager(StableShape shape, MappedByteBuffer buffer) {
+        super(shape);
+        this.buffer = buffer;
+    }
+
+    private void writeHeader() {
+        StableShape stableShape = getStableShape();
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(VERSION_POS, VERSION);
+        buffer.putInt(M_POS, stableShape.numberOfCells());
+        buffer.putInt(K_POS, stableShape.getNumberOfHashFunctions());
+        buffer.putInt(P_POS, stableShape.decrementShape.getNumberOfHashFunctions());
+        buffer.putInt(MAX_POS, stableShape.resetValue());
+        buffer.putDouble(FPS_POS, stableShape.fps);
+        buffer.putInt(STRATEGY_POS, stableShape.decrementStrategy.ordinal());
+        buffer.putInt(BLOCK_POS, stableShape.cellsPerBlock);
+        buffer.putInt(ENGINE_POS, stableShape.randomEngine.ordinal());
+    }
+
+    /**
+     * Gets the buffer.
+     * @return the buffer.
+     * @throws IllegalStateException if the buffer has been released.
+     */
+    private MappedByteBuffer buffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("Buffer has been released");
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets the StableShape recorded in the file.
+     * @return the StableShape for the buffer.
+     */
+    public StableShape getStableShape() {
+        return (StableShape) shape;
+    }
+
+    /**
+     * Makes a copy of the buffer on the heap. The file is not copied.
+     * @return A heap based copy of the buffer.
+     */
+    @Override
+    public Heap copy() {
+        Heap result = new Heap(shape);
+        MappedByteBuffer buff = buffer();
+        for (int i = 0; i < result.buffer.length; i++) {
+            result.buffer[i] = buff.getLong(HEADER_SIZE + (i << 3));
+        }
+        result.cardinality = this.cardinality;
+        return result;
+    }
+
+    @Override
+    protected void clearWords() {
+        MappedByteBuffer buff = buffer();
+        for (int i = HEADER_SIZE; i < buff.capacity(); i += Long.BYTES) {
+            buff.putLong(i, 0L);
+        }
+    }
+
+    @Override
+    protected long getWord(int index) {
+        return buffer().getLong(HEADER_SIZE + (index << 3));
+    }
+
+    @Override
+    protected void setWord(int index, long value) {
+        buffer().putLong(HEADER_SIZE + (index << 3), value);
+    }
+
+    /**
+     * Writes any changes to the file.
+     */
+    public void flush() {
+        buffer().force();
+    }
+
+    /**
+     * Writes any changes and the cardinality to the file and releases the buffer.
+     * Any further use of this manager will throw an IllegalStateException.
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            buffer.putInt(CARDINALITY_POS, cardinality);
+            buffer.force();
+            buffer = null;
+        }
+    }
+}
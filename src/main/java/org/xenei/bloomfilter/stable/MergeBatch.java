@@ -0,0 +1,236 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+/**
+ * Collects the set and decrement operations of a number of merges so that they
+ * can be applied to a buffer a region at a time.
+ * <p>
+ * The buffer is divided into at most {@code 2^MAX_REGION_BITS} regions of
+ * consecutive cells, each a multiple of 64 cells. The operations are partitioned
+ * by region with a stable counting sort, so within a region they keep the order
+ * in which they were added. As operations on different cells are independent,
+ * applying the regions one after the other leaves the buffer in exactly the
+ * state the merges would have left it in when applied one at a time, while each
+ * region is small enough to stay in the processor cache while it is updated.
+ * </p>
+ * <p>
+ * As the regions are multiples of 64 cells no two regions share a word of the
+ * buffer, so different regions may be applied by different threads without locking.
+ * </p>
+ * <p>As an IntPredicate the batch adds a set operation for each index it is given.</p>
+ */
+final class MergeBatch implements IntPredicate {
+    /**
+     * log2 of the maximum number of regions.
+     */
+    static final int MAX_REGION_BITS = 10;
+    /**
+     * The number of operations below which a parallel apply does not split a range of regions.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    /**
+     * The number of cells in the buffer.
+     */
+    private final int cells;
+    /**
+     * log2 of the number of cells in a region.
+     */
+    private final int regionShift;
+    /**
+     * The operations. A decrement is stored as the cell and a set as the complement of the cell.
+     */
+    private int[] ops;
+    /**
+     * The number of operations.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     * @param cells the number of cells in the buffer.
+     * @param capacity the expected number of operations.
+     */
+    MergeBatch(int cells, int capacity) {
+        this.cells = cells;
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(cells - 1);
+        this.regionShift = Math.max(6, bits - MAX_REGION_BITS);
+        this.ops = new int[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Gets the number of operations in the batch.
+     * @return the number of operations.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of regions.
+     * @return the number of regions.
+     */
+    int numberOfRegions() {
+        return ((cells - 1) >> regionShift) + 1;
+    }
+
+    private void add(int op) {
+        if (size == ops.length) {
+            if (size > Integer.MAX_VALUE >> 1) {
+                throw new IllegalStateException("Too many operations in the batch");
+            }
+            ops = Arrays.copyOf(ops, size << 1);
+        }
+        ops[size++] = op;
+    }
+
+    /**
+     * Adds a decrement of the cell.
+     * @param cell the cell to decrement.
+     */
+    void decrement(int cell) {
+        add(cell);
+    }
+
+    /**
+     * Adds a set of the cell.
+     * @param cell the cell to set.
+     * @throws IllegalArgumentException if the cell is not in the buffer.
+     */
+    void set(int cell) {
+        if (cell >= cells || cell < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Filter only accepts values in the [0,%d) range", cells));
+        }
+        add(~cell);
+    }
+
+    @Override
+    public boolean test(int cell) {
+        set(cell);
+        return true;
+    }
+
+    /**
+     * Gets the cell of an operation.
+     * @param op the operation.
+     * @return the cell.
+     */
+    static int cell(int op) {
+        return op < 0 ? ~op : op;
+    }
+
+    /**
+     * Partitions the operations by region. After the call the operations for
+     * region {@code r} are {@code ops[bounds[r]]} to {@code ops[bounds[r+1]-1]}.
+     * @param bounds an array of {@code numberOfRegions() + 1} entries to receive the region boundaries.
+     * @return the partitioned operations.
+     */
+    int[] partition(int[] bounds) {
+        Arrays.fill(bounds, 0);
+        for (int i = 0; i < size; i++) {
+            bounds[(cell(ops[i]) >> regionShift) + 1]++;
+        }
+        for (int r = 1; r < bounds.length; r++) {
+            bounds[r] += bounds[r - 1];
+        }
+        int[] next = Arrays.copyOf(bounds, bounds.length - 1);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[next[cell(ops[i]) >> regionShift]++] = ops[i];
+        }
+        return result;
+    }
+
+    /**
+     * Applies the operations to the buffer a region at a time.
+     * @param buffer the buffer to update.
+     */
+    void apply(BufferManager buffer) {
+        int[] bounds = new int[numberOfRegions() + 1];
+        buffer.addCardinality(apply(buffer, partition(bounds), 0, size));
+    }
+
+    /**
+     * Applies the operations to the buffer with tasks in the pool.
+     * <p>Each task applies the operations of a range of regions without updating the
+     * count of cells that are set, which is not thread safe, and returns the change
+     * in the count. The changes are summed as the tasks join and added to the buffer
+     * once.</p>
+     * @param buffer the buffer to update.
+     * @param pool the pool to run the tasks in.
+     */
+    void apply(BufferManager buffer, ForkJoinPool pool) {
+        int[] bounds = new int[numberOfRegions() + 1];
+        int[] sorted = partition(bounds);
+        buffer.addCardinality(pool.invoke(new RegionTask(buffer, sorted, bounds, 0, bounds.length - 1)));
+    }
+
+    /**
+     * Applies a range of operations to the buffer in order without updating the
+     * count of cells that are set.
+     * @param buffer the buffer to update.
+     * @param ops the operations.
+     * @param from the first operation to apply.
+     * @param to the operation after the last one to apply.
+     * @return the change in the number of cells that are set.
+     */
+    static int apply(BufferManager buffer, int[] ops, int from, int to) {
+        int delta = 0;
+        for (int i = from; i < to; i++) {
+            int op = ops[i];
+            if (op < 0) {
+                delta += buffer.setUncounted(~op);
+            } else {
+                delta += buffer.decrementUncounted(op);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Applies the operations of a range of regions, splitting the range while it has
+     * more than {@link #PARALLEL_THRESHOLD} operations, and returns the change in the
+     * number of cells that are set.
+     */
+    private static final class RegionTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final transient BufferManager buffer;
+        private final int[] ops;
+        private final int[] bounds;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor.
+         * @param buffer the buffer to update.
+         * @param ops the partitioned operations.
+         * @param bounds the region boundaries.
+         * @param from the first region to apply.
+         * @param to the region after the last one to apply.
+         */
+        RegionTask(BufferManager buffer, int[] ops, int[] bounds, int from, int to) {
+            this.buffer = buffer;
+            this.ops = ops;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from == 1 || bounds[to] - bounds[from] <= PARALLEL_THRESHOLD) {
+                return apply(buffer, ops, bounds[from], bounds[to]);
+            }
+            int mid = (from + to) >>> 1;
+            RegionTask low = new RegionTask(buffer, ops, bounds, from, mid);
+            RegionTask high = new RegionTask(buffer, ops, bounds, mid, to);
+            invokeAll(low, high);
+            return low.join() + high.join();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.collections4.bloomfilter.BitMap;
+
+/**
+ * A BufferManager that keeps a bit map of the non-zero cells of another BufferManager.
+ * <p>
+ * The occupancy bit map holds one bit per cell and is updated as cells change
+ * between zero and non-zero. Bit map and index production read the bit map a
+ * word at a time instead of testing every cell, so flattening a stable filter or
+ * iterating its indices runs at word speed. Tests for set cells and decrements of
+ * zero cells are answered from the bit map without reading the cell buffer.
+ * </p>
+ * <p>This class is not thread safe.</p>
+ */
+public class OccupancyBufferManager implements BufferManager {
+    /**
+     * The buffer holding the cells.
+     */
+    private final BufferManager delegate;
+    /**
+     * The bit map of non-zero cells.
+     */
+    private final long[] occupancy;
+
+    /**
+     * Wraps a buffer. The bit map is built from the cells currently set in the buffer.
+     * @param delegate the buffer holding the cells.
+     */
+    public OccupancyBufferManager(BufferManager delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.occupancy = new long[BitMap.numberOfBitMaps(delegate.getShape().numberOfCells())];
+        int[] idx = { 0 };
+        delegate.forEachBitMap(word -> {
+            occupancy[idx[0]++] = word;
+            return true;
+        });
+    }
+
+    private OccupancyBufferManager(BufferManager delegate, long[] occupancy) {
+        this.delegate = delegate;
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Updates the occupancy bit for the entry from the cell buffer.
+     * @param entry the cell to check.
+     */
+    private void update(int entry) {
+        if (delegate.isSet(entry)) {
+            occupancy[entry >> 6] |= BitMap.getLongBit(entry);
+        } else {
+            occupancy[entry >> 6] &= ~BitMap.getLongBit(entry);
+        }
+    }
+
+    @Override
+    public BufferShape getShape() {
+        return delegate.getShape();
+    }
+
+    @Override
+    public int get(int entry) {
+        return delegate.get(entry);
+    }
+
+    @Override
+    public void set(int entry) {
+        delegate.set(entry);
+        occupancy[entry >> 6] |= BitMap.getLongBit(entry);
+    }
+
+    @Override
+    public int setUncounted(int entry) {
+        int result = delegate.setUncounted(entry);
+        occupancy[entry >> 6] |= BitMap.getLongBit(entry);
+        return result;
+    }
+
+    @Override
+    public void decrement(int entry) {
+        if (isSet(entry)) {
+            delegate.decrement(entry);
+            update(entry);
+        }
+    }
+
+    @Override
+    public int decrementUncounted(int entry) {
+        if (!isSet(entry)) {
+            return 0;
+        }
+        int result = delegate.decrementUncounted(entry);
+        update(entry);
+        return result;
+    }
+
+    @Override
+    public void decrement(int[] entries, int count) {
+        delegate.decrement(entries, count);
+        for (int i = 0; i < count; i++) {
+            if (isSet(entries[i])) {
+                update(entries[i]);
+            }
+        }
+    }
+
+    @Override
+    public void decrementRange(int from, int count) {
+        delegate.decrementRange(from, count);
+        for (int i = from; i < from + count; i++) {
+            if (isSet(i)) {
+                update(i);
+            }
+        }
+    }
+
+    @Override
+    public boolean isSet(int entry) {
+        return (occupancy[entry >> 6] & BitMap.getLongBit(entry)) != 0;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        Arrays.fill(occupancy, 0L);
+    }
+
+    @Override
+    public int cardinality() {
+        return delegate.cardinality();
+    }
+
+    @Override
+    public void addCardinality(int delta) {
+        delegate.addCardinality(delta);
+    }
+
+    @Override
+    public void func(int entry, int value, IntBinaryOperator f) {
+        delegate.func(entry, value, f);
+        update(entry);
+    }
+
+    @Override
+    public OccupancyBufferManager copy() {
+        return new OccupancyBufferManager(delegate.copy(), occupancy.clone());
+    }
+
+    @Override
+    public boolean forEachBitMap(LongPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        for (long word : occupancy) {
+            if (!consumer.test(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachIndex(IntPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        for (int i = 0; i < occupancy.length; i++) {
+            long word = occupancy[i];
+            while (word != 0) {
+                if (!consumer.test((i << 6) + Long.numberOfTrailingZeros(word))) {
+                    return false;
+                }
+                word &= word - 1;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long[] asBitMapArray() {
+        return occupancy.clone();
+    }
+}
@@ -0,0 +1,72 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Random;
+
+/**
+ * The pseudo random generators that may select the cells to decrement.
+ * <p>
+ * The stable point depends only on how many cells are decremented, so the
+ * StableShape calculations are the same for every engine as long as the engine
+ * selects cells uniformly. The engines differ in speed and in how well their
+ * values are mixed.
+ * </p>
+ */
+public enum RandomEngine {
+    /**
+     * Enhanced double hashing, see {@link FastPseudoRandomInt}. This is the fastest
+     * engine, but it is not well mixed. Until the tetrahedral term wraps, after a few
+     * million values, the high bits step by a near constant increment, so the cells
+     * decremented are spread more evenly than random cells would be and a small
+     * filter may settle some way from the stable point.
+     */
+    ENHANCED_DOUBLE_HASH {
+        @Override
+        IndexGenerator create(long seed) {
+            return new FastPseudoRandomInt(seed, seed + SplitMixGenerator.GOLDEN_GAMMA);
+        }
+    },
+    /**
+     * SplitMix64, the algorithm of {@link java.util.SplittableRandom}. This is the
+     * default: its values are well mixed and it costs only the two multiplies of
+     * the finalizer more than enhanced double hashing.
+     */
+    SPLIT_MIX {
+        @Override
+        IndexGenerator create(long seed) {
+            return new SplitMixGenerator(seed);
+        }
+    },
+    /**
+     * xoroshiro128+.
+     */
+    XOROSHIRO {
+        @Override
+        IndexGenerator create(long seed) {
+            return new XoroshiroGenerator(seed);
+        }
+    },
+    /**
+     * A counter mixed with the Murmur3 finalizer.
+     */
+    COUNTER {
+        @Override
+        IndexGenerator create(long seed) {
+            return new CounterGenerator(seed);
+        }
+    };
+
+    /**
+     * Creates a randomly seeded generator.
+     * @return a new generator.
+     */
+    public IndexGenerator create() {
+        return create(new Random().nextLong());
+    }
+
+    /**
+     * Creates a generator with a known seed so the sequence can be repeated.
+     * @param seed the seed.
+     * @return a new generator.
+     */
+    abstract IndexGenerator create(long seed);
+}
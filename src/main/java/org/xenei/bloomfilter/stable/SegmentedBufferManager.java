@@ -0,0 +1,172 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+/**
+ * A LongBufferManager that splits the cells across a number of BufferManagers.
+ * <p>
+ * Every segment holds the same power of 2 number of cells, except the last which
+ * holds the remainder, so the segment and the cell within it are found with a
+ * shift and a mask. The segments are created by a factory so they may be on the
+ * heap ({@link AbstractBufferManager#instance(BufferShape)}, the default) or off
+ * heap ({@link AbstractWordBufferManager.Direct}).
+ * </p>
+ */
+public class SegmentedBufferManager implements LongBufferManager {
+    /**
+     * The default log2 of the number of cells in a segment.
+     */
+    public static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    /**
+     * The number of cells.
+     */
+    private final long numberOfCells;
+    /**
+     * log2 of the number of cells in a segment.
+     */
+    private final int segmentShift;
+    /**
+     * The mask to extract the position of a cell within a segment.
+     */
+    private final long segmentMask;
+    /**
+     * The segments.
+     */
+    private final BufferManager[] segments;
+
+    /**
+     * Constructs a buffer with heap segments of {@code 2^DEFAULT_SEGMENT_SHIFT} cells.
+     * @param shape the shape of the filter.
+     */
+    public SegmentedBufferManager(LargeStableShape shape) {
+        this(shape, DEFAULT_SEGMENT_SHIFT, AbstractBufferManager::instance);
+    }
+
+    /**
+     * Constructor.
+     * @param shape the shape of the filter.
+     * @param segmentShift log2 of the number of cells in a segment. Must be in the range [6,30].
+     * @param factory the function to create a segment from its shape.
+     */
+    public SegmentedBufferManager(LargeStableShape shape, int segmentShift,
+            Function<BufferShape, BufferManager> factory) {
+        Objects.requireNonNull(shape, "shape");
+        Objects.requireNonNull(factory, "factory");
+        if (segmentShift < 6 || segmentShift > 30) {
+            throw new IllegalArgumentException("Segment shift must be in the range [6,30]");
+        }
+        this.numberOfCells = shape.numberOfCells();
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        long count = ((numberOfCells - 1) >> segmentShift) + 1;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    String.format("%s cells requires too many segments of %s cells", numberOfCells, 1L << segmentShift));
+        }
+        this.segments = new BufferManager[(int) count];
+        int lastCells = (int) (numberOfCells - ((count - 1) << segmentShift));
+        BufferShape full = shape.segmentShape(1 << segmentShift);
+        for (int i = 0; i < segments.length - 1; i++) {
+            segments[i] = factory.apply(full);
+        }
+        segments[segments.length - 1] = factory.apply(
+                lastCells == (1 << segmentShift) ? full : shape.segmentShape(lastCells));
+    }
+
+    private SegmentedBufferManager(SegmentedBufferManager other) {
+        this.numberOfCells = other.numberOfCells;
+        this.segmentShift = other.segmentShift;
+        this.segmentMask = other.segmentMask;
+        this.segments = new BufferManager[other.segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = other.segments[i].copy();
+        }
+    }
+
+    /**
+     * Gets the segment that holds the entry.
+     * @param entry the entry to locate.
+     * @return the segment holding the entry.
+     */
+    private BufferManager segment(long entry) {
+        return segments[(int) (entry >>> segmentShift)];
+    }
+
+    /**
+     * Gets the number of segments.
+     * @return the number of segments.
+     */
+    public int numberOfSegments() {
+        return segments.length;
+    }
+
+    /**
+     * Gets a segment.
+     * @param index the index of the segment.
+     * @return the segment.
+     */
+    public BufferManager getSegment(int index) {
+        return segments[index];
+    }
+
+    @Override
+    public long numberOfCells() {
+        return numberOfCells;
+    }
+
+    @Override
+    public int get(long entry) {
+        return segment(entry).get((int) (entry & segmentMask));
+    }
+
+    @Override
+    public void set(long entry) {
+        segment(entry).set((int) (entry & segmentMask));
+    }
+
+    @Override
+    public void decrement(long entry) {
+        segment(entry).decrement((int) (entry & segmentMask));
+    }
+
+    @Override
+    public boolean isSet(long entry) {
+        return segment(entry).isSet((int) (entry & segmentMask));
+    }
+
+    @Override
+    public void clear() {
+        for (BufferManager segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public long cardinality() {
+        long result = 0;
+        for (BufferManager segment : segments) {
+            result += segment.cardinality();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean forEachIndex(LongPredicate consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        for (int i = 0; i < segments.length; i++) {
+            long base = (long) i << segmentShift;
+            if (!segments[i].forEachIndex(x -> consumer.test(base + x))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SegmentedBufferManager copy() {
+        return new SegmentedBufferManager(this);
+    }
+}
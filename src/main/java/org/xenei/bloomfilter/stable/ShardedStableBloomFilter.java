@@ -0,0 +1,334 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * A stable Bloom filter split into a number of independent StableBloomFilter shards.
+ * <p>
+ * Each key is routed to one shard by a hash of its first index so that a key is
+ * always merged into and tested against the same shard. Every shard has its own
+ * buffer and random number generator and holds {@code m/N} of the cells of the
+ * StableShape with the same {@code k}, {@code P} and {@code Max}. As each shard
+ * receives {@code 1/N} of the keys the shards reach the same stable point, and the
+ * same false positive rate, as the single filter.
+ * </p>
+ * <p>
+ * The shards are not thread safe, but they share nothing, so ingest scales with
+ * the number of threads when each shard is written by a single thread. Partition
+ * the keys with {@link #shardIndex(Hasher)}, or {@link #shardIndex(long, long)},
+ * and have the thread that owns a shard call {@link #getShard(int)} to merge into
+ * it. {@link #shardIndex(Hasher)} reuses a field of this class, so hashers must be
+ * routed by one thread at a time; the key routes hold no state. The methods of
+ * this class that route the key themselves are for single threaded use.
+ * </p>
+ * <p>
+ * Keys that are longs, such as ids or UUIDs, are routed by the key methods, such
+ * as {@link #shardIndex(long, long)}, which allocate nothing and are merged with
+ * the allocation free key methods of the shard. Routing a Hasher allocates only
+ * the IndexProducer that the hasher creates. The two routes are independent, so a key must always be passed
+ * the same way.
+ * </p>
+ */
+public class ShardedStableBloomFilter {
+    /**
+     * The shape used to extract a routing value from a hasher.
+     */
+    private static final Shape ROUTING_SHAPE = Shape.fromKM(1, Integer.MAX_VALUE);
+    /**
+     * The seed mixed into a long key before it is routed.
+     */
+    private static final long ROUTING_SEED = 0x6A09E667F3BCC909L;
+
+    private final StableShape shape;
+    private final StableShape shardShape;
+    private final StableBloomFilter[] shards;
+    /**
+     * The first index of the hasher being routed.
+     */
+    private int route;
+    /**
+     * Records the first index it is given as the route and stops.
+     */
+    private final IntPredicate router = this::routeIndex;
+
+    /**
+     * Create a sharded stable Bloom filter.
+     * @param shape the shape of the whole filter.
+     * @param numberOfShards the number of shards. Must be greater than 0 and no more than {@code m/2}.
+     */
+    public ShardedStableBloomFilter(StableShape shape, int numberOfShards) {
+        this.shape = Objects.requireNonNull(shape, "shape");
+        if (numberOfShards < 1 || numberOfShards > shape.numberOfCells() / 2) {
+            throw new IllegalArgumentException(
+                    String.format("Number of shards must be in the range [1,%s]", shape.numberOfCells() / 2));
+        }
+        this.shardShape = shardShape(shape, numberOfShards);
+        this.shards = new StableBloomFilter[numberOfShards];
+        IndexGenerator seeds = shape.randomEngine.create();
+        for (int i = 0; i < numberOfShards; i++) {
+            shards[i] = new StableBloomFilter(shardShape, AbstractBufferManager.instance(shardShape), seeds.split());
+        }
+    }
+
+    /**
+     * Calculates the shape of one shard.
+     * @param shape the shape of the whole filter.
+     * @param numberOfShards the number of shards.
+     * @return the shape of a shard.
+     */
+    static StableShape shardShape(StableShape shape, int numberOfShards) {
+        int m = (int) (((long) shape.numberOfCells() + numberOfShards - 1) / numberOfShards);
+        return StableShape.builder().setM(m)
+                .setK(shape.getNumberOfHashFunctions()).setP(shape.decrementShape.getNumberOfHashFunctions())
+                .setMax(shape.resetValue()).setFps(shape.fps).setDecrementStrategy(shape.decrementStrategy)
+                .setRandomEngine(shape.randomEngine).setBlocked(shape.isBlocked()).build();
+    }
+
+    /**
+     * Gets the shape of the whole filter.
+     * @return the StableShape.
+     */
+    public StableShape getStableShape() {
+        return shape;
+    }
+
+    /**
+     * Gets the shape of each shard.
+     * @return the StableShape of a shard.
+     */
+    public StableShape getShardShape() {
+        return shardShape;
+    }
+
+    /**
+     * Gets the number of shards.
+     * @return the number of shards.
+     */
+    public int numberOfShards() {
+        return shards.length;
+    }
+
+    /**
+     * Gets a shard.
+     * <p>A shard is a StableBloomFilter and is not thread safe. Each shard must be
+     * merged into by only one thread at a time, and not read while it is merged
+     * into. Different shards may be used by different threads at once.</p>
+     * @param index the index of the shard.
+     * @return the shard.
+     */
+    public StableBloomFilter getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * Gets the index of the shard that the key is routed to.
+     * <p>The first index of the hasher is mixed before it is reduced to a shard
+     * so that the route does not restrict the cells a key may use within its
+     * shard. The first index is read through a reused predicate, so the only
+     * allocation is the IndexProducer that the hasher creates; the key methods, such
+     * as {@link #shardIndex(long, long)}, route without allocating. As the predicate
+     * records the index in this filter, hashers must be routed by one thread at a
+     * time.</p>
+     * @param hasher the key.
+     * @return the index of the shard for the key.
+     */
+    public int shardIndex(Hasher hasher) {
+        Objects.requireNonNull(hasher, "hasher");
+        route = 0;
+        hasher.indices(ROUTING_SHAPE).forEachIndex(router);
+        return (int) (((mix(route) & 0xFFFFFFFFL) * shards.length) >>> 32);
+    }
+
+    /**
+     * Records the index as the route.
+     * @param x the first index of the hasher.
+     * @return false to stop after the first index.
+     */
+    private boolean routeIndex(int x) {
+        route = x;
+        return false;
+    }
+
+    /**
+     * Gets the index of the shard that a 64 bit key is routed to. This is the same as
+     * {@code shardIndex(0, key)}.
+     * @param key the key.
+     * @return the index of the shard for the key.
+     */
+    public int shardIndex(long key) {
+        return shardIndex(0L, key);
+    }
+
+    /**
+     * Gets the index of the shard that a 128 bit key is routed to.
+     * <p>The key is mixed with a different seed than the shard's key methods use to
+     * select the cells, so the route does not restrict the cells a key may use
+     * within its shard.</p>
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return the index of the shard for the key.
+     */
+    public int shardIndex(long msb, long lsb) {
+        long h = IndexGenerator.mix(lsb ^ IndexGenerator.mix(msb ^ ROUTING_SEED));
+        return (int) (((h >>> 32) * shards.length) >>> 32);
+    }
+
+    /**
+     * The 32-bit finalizer of MurmurHash3.
+     * @param h the value to mix.
+     * @return the mixed value.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gets the shard that the key is routed to.
+     * @param hasher the key.
+     * @return the shard for the key.
+     */
+    public StableBloomFilter shardFor(Hasher hasher) {
+        return shards[shardIndex(hasher)];
+    }
+
+    /**
+     * Merges the key into its shard.
+     * @param hasher the key.
+     * @return true if the merge was successful.
+     */
+    public boolean merge(Hasher hasher) {
+        return shardFor(hasher).merge(hasher);
+    }
+
+    /**
+     * Tests if the key is in its shard.
+     * @param hasher the key.
+     * @return {@code true} if the key is in the filter.
+     */
+    public boolean contains(Hasher hasher) {
+        return shardFor(hasher).contains(hasher);
+    }
+
+    /**
+     * Tests if the key is in its shard and then merges it.
+     * @param hasher the key.
+     * @return {@code true} if the key was in the filter before the merge.
+     * @see StableBloomFilter#testAndMerge(Hasher)
+     */
+    public boolean testAndMerge(Hasher hasher) {
+        return shardFor(hasher).testAndMerge(hasher);
+    }
+
+    /**
+     * Gets the shard that a 128 bit key is routed to.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return the shard for the key.
+     */
+    public StableBloomFilter shardFor(long msb, long lsb) {
+        return shards[shardIndex(msb, lsb)];
+    }
+
+    /**
+     * Merges a 64 bit key into its shard. This is the same as {@code mergeKey(0, key)}.
+     * @param key the key.
+     * @return true.
+     * @see StableBloomFilter#mergeKey(long)
+     */
+    public boolean mergeKey(long key) {
+        return mergeKey(0L, key);
+    }
+
+    /**
+     * Merges a 128 bit key into its shard.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return true.
+     * @see StableBloomFilter#mergeKey(long, long)
+     */
+    public boolean mergeKey(long msb, long lsb) {
+        return shardFor(msb, lsb).mergeKey(msb, lsb);
+    }
+
+    /**
+     * Tests if a 64 bit key is in its shard. This is the same as {@code containsKey(0, key)}.
+     * @param key the key.
+     * @return {@code true} if the key is in the filter.
+     */
+    public boolean containsKey(long key) {
+        return containsKey(0L, key);
+    }
+
+    /**
+     * Tests if a 128 bit key is in its shard.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return {@code true} if the key is in the filter.
+     * @see StableBloomFilter#containsKey(long, long)
+     */
+    public boolean containsKey(long msb, long lsb) {
+        return shardFor(msb, lsb).containsKey(msb, lsb);
+    }
+
+    /**
+     * Tests if a 64 bit key is in its shard and then merges it. This is the same as
+     * {@code testAndMergeKey(0, key)}.
+     * @param key the key.
+     * @return {@code true} if the key was in the filter before the merge.
+     */
+    public boolean testAndMergeKey(long key) {
+        return testAndMergeKey(0L, key);
+    }
+
+    /**
+     * Tests if a 128 bit key is in its shard and then merges it.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return {@code true} if the key was in the filter before the merge.
+     * @see StableBloomFilter#testAndMergeKey(long, long)
+     */
+    public boolean testAndMergeKey(long msb, long lsb) {
+        return shardFor(msb, lsb).testAndMergeKey(msb, lsb);
+    }
+
+    /**
+     * Clears every shard.
+     */
+    public void clear() {
+        for (StableBloomFilter shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cells that are set in all the shards.
+     * @return the number of cells that are set.
+     */
+    public long cardinality() {
+        long result = 0;
+        for (StableBloomFilter shard : shards) {
+            result += shard.cardinality();
+        }
+        return result;
+    }
+
+    /**
+     * Estimates the number of items in the filter as the sum of the estimates for the shards.
+     * @return the estimated number of items.
+     */
+    public double estimateN() {
+        double result = 0;
+        for (StableBloomFilter shard : shards) {
+            result += shardShape.getShape().estimateN(shard.cardinality());
+        }
+        return result;
+    }
+}
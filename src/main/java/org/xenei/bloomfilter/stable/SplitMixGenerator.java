@@ -0,0 +1,52 @@
+package org.xenei.bloomfilter.stable;
+
+/**
+ * Generates indices with the SplitMix64 algorithm used by {@link java.util.SplittableRandom}.
+ * The state advances by a fixed odd constant and each value is the state mixed with
+ * the SplitMix64 finalizer.
+ */
+final class SplitMixGenerator extends IndexGenerator {
+    /**
+     * The increment of the state, the golden ratio as a 64 bit fraction.
+     */
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Constructs a generator.
+     * @param seed the seed.
+     */
+    SplitMixGenerator(long seed) {
+        this.state = seed;
+    }
+
+    private long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    @Override
+    public int nextInt(int limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public long nextLong(long limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public void fill(int[] out, int count, int limit) {
+        long s = state;
+        for (int i = 0; i < count; i++) {
+            s += GOLDEN_GAMMA;
+            out[i] = reduce(mix(s), limit);
+        }
+        state = s;
+    }
+
+    @Override
+    public SplitMixGenerator split() {
+        return new SplitMixGenerator(nextLong());
+    }
+}
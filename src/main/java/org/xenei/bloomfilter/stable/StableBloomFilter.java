@@ -1,12 +1,16 @@
 package org.xenei.bloomfilter.stable;
 
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.IntPredicate;
 import java.util.function.LongPredicate;
 
 import org.apache.commons.collections4.bloomfilter.BitMap;
 import org.apache.commons.collections4.bloomfilter.BitMapProducer;
 import org.apache.commons.collections4.bloomfilter.BloomFilter;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
 import org.apache.commons.collections4.bloomfilter.Hasher;
 import org.apache.commons.collections4.bloomfilter.IndexProducer;
 import org.apache.commons.collections4.bloomfilter.Shape;
@@ -14,13 +18,62 @@ import org.apache.commons.collections4.bloomfilter.SimpleBloomFilter;
 
 /**
  * Based http://webdocs.cs.ualberta.ca/~drafiei/papers/DupDet06Sigmod.pdf
- *
+ * <p>
+ * The bit map and index views of the filter are produced by the BufferManager.
+ * Wrap the buffer in an {@link OccupancyBufferManager} when those views, or
+ * {@link #flatten()}, are used often.
+ * </p>
+ * <p>
+ * When the shape is blocked the indices of an item are moved into the block of its
+ * first index, keeping their offsets within the block, so the indices of a Hasher
+ * or IndexProducer are always treated as a single item. The only BitMapProducers
+ * and BloomFilters accepted are blocked stable filters with the same layout, whose
+ * cells are already in their blocks and are merged and tested as they are. A block is a single cache line only in an aligned buffer; see
+ * {@link StableShape.Builder#setBlocked(boolean)}.
+ * </p>
  */
 public class StableBloomFilter implements BloomFilter {
+    /**
+     * The number of items whose cells are probed together by containsAll.
+     */
+    static final int PROBE_GROUP = 16;
+    /**
+     * The number of hashers below which a parallel containsAll does not split the batch.
+     */
+    static final int CONTAINS_THRESHOLD = 4096;
+
     private final StableShape shape;
-    private final FastPseudoRandomInt idxFactory;
+    private final IndexGenerator idxFactory;
     private final BufferManager buffer;
-    private int cardinality;
+    private final int[] decrements;
+    /**
+     * The mask for the offset of a cell within its block when the shape is blocked.
+     */
+    private final int blockMask;
+    /**
+     * The first cell of the next decrement when using the SWEEP strategy.
+     */
+    private int sweep;
+    /**
+     * Sets each index it is given.
+     */
+    private final IntPredicate setter = this::setCell;
+    /**
+     * Records each index it is given in the probes.
+     */
+    private final IntPredicate prober = this::probeCell;
+    /**
+     * The cells of the current testAndMerge.
+     */
+    private int[] probes;
+    /**
+     * The number of probes.
+     */
+    private int probeCount;
+    /**
+     * The cells of the current group of testAndMergeAll, created on first use.
+     */
+    private int[] groupCells;
 
     /**
      * Create a stable Bloom filter.
@@ -30,11 +83,50 @@ public class StableBloomFilter implements BloomFilter {
         this(shape, AbstractBufferManager.instance(shape));
     }
 
-    private StableBloomFilter(StableShape shape, BufferManager buffer) {
+    /**
+     * Create a stable Bloom filter that stores its cells in the buffer.
+     * <p>The buffer must have been created for the shape and is used directly, not copied.</p>
+     * @param shape the Stable shape.
+     * @param buffer the buffer to store the cells in.
+     * @throws IllegalArgumentException if the buffer's shape does not match the shape.
+     */
+    public StableBloomFilter(StableShape shape, BufferManager buffer) {
+        this(shape, checkBuffer(shape, buffer), shape.randomEngine.create());
+    }
+
+    /**
+     * Verifies that the buffer was created for the shape.
+     * @param shape the Stable shape.
+     * @param buffer the buffer to check.
+     * @return the buffer.
+     * @throws IllegalArgumentException if the buffer's cell count, cell width or
+     * reset value does not match the shape.
+     */
+    private static BufferManager checkBuffer(StableShape shape, BufferManager buffer) {
+        BufferShape bufferShape = Objects.requireNonNull(buffer, "buffer").getShape();
+        if (bufferShape.numberOfCells() != shape.numberOfCells() || bufferShape.bitsPerCell() != shape.bitsPerCell()
+                || bufferShape.resetValue() != shape.resetValue()) {
+            throw new IllegalArgumentException(String.format(
+                    "Buffer shape (%s cells, %s bits, reset %s) does not match %s", bufferShape.numberOfCells(),
+                    bufferShape.bitsPerCell(), bufferShape.resetValue(), shape));
+        }
+        return buffer;
+    }
+
+    /**
+     * Create a stable Bloom filter that selects the cells to decrement with the generator.
+     * @param shape the Stable shape.
+     * @param buffer the buffer to store the cells in.
+     * @param idxFactory the generator for the cells to decrement.
+     */
+    StableBloomFilter(StableShape shape, BufferManager buffer, IndexGenerator idxFactory) {
         this.shape = shape;
-        this.idxFactory = new FastPseudoRandomInt();
+        this.idxFactory = idxFactory;
         this.buffer = buffer;
-        this.cardinality = -1;
+        this.decrements = new int[shape.decrementShape.getNumberOfHashFunctions()];
+        this.blockMask = shape.cellsPerBlock - 1;
+        this.probes = new int[shape.getNumberOfHashFunctions()];
+        this.sweep = idxFactory.nextInt(shape.numberOfCells());
     }
 
     /**
@@ -58,101 +150,760 @@ public class StableBloomFilter implements BloomFilter {
     @Override
     public void clear() {
         buffer.clear();
-        cardinality = 0;
     }
 
+    /**
+     * Tests if the indices are in the filter. In a blocked filter the indices are
+     * those of an item and are moved into the block of the first index, unless they
+     * are the cells of a blocked filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the producer is
+     * another Bloom filter or bit map.
+     * @see #isItem(IndexProducer)
+     */
     @Override
     public boolean contains(IndexProducer indexProducer) {
+        if (shape.isBlocked()) {
+            if (!isItem(indexProducer)) {
+                return indexProducer.forEachIndex(buffer::isSet);
+            }
+            // the first index selects the block for the others.
+            final int[] base = { -1 };
+            return indexProducer.forEachIndex(x -> {
+                if (base[0] < 0) {
+                    base[0] = x & ~blockMask;
+                }
+                return buffer.isSet(base[0] | (x & blockMask));
+            });
+        }
         return indexProducer.forEachIndex(x -> {
             return buffer.isSet(x);
         });
     }
 
+    /**
+     * Tests if the bits are set. A blocked filter only accepts the bits of a blocked
+     * filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the bits are not
+     * those of a blocked filter with the same layout.
+     * @see #isItem(IndexProducer)
+     */
     @Override
-    public int cardinality() {
-        if (cardinality < 0) {
-            int result = 0;
-            for (int i = 0; i < shape.numberOfCells(); i++) {
-                if (buffer.isSet(i)) {
-                    result++;
+    public boolean contains(final BitMapProducer bitMapProducer) {
+        if (shape.isBlocked()) {
+            checkBlockedFilter(bitMapProducer);
+            return IndexProducer.fromBitMapProducer(bitMapProducer).forEachIndex(buffer::isSet);
+        }
+        return BloomFilter.super.contains(bitMapProducer);
+    }
+
+    /**
+     * Tests if the cells of the other filter are set. A blocked filter only accepts a
+     * blocked filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the other filter is
+     * not a blocked filter with the same layout.
+     * @see #isItem(IndexProducer)
+     */
+    @Override
+    public boolean contains(final BloomFilter other) {
+        if (shape.isBlocked()) {
+            checkBlockedFilter(Objects.requireNonNull(other, "other"));
+            return other.forEachIndex(buffer::isSet);
+        }
+        return BloomFilter.super.contains(other);
+    }
+
+    /**
+     * Tests if each of the hashers is in the filter.
+     * <p>
+     * The indices of a group of hashers are generated into a small array and the
+     * cells of the group are then probed together: the first cell of each item in the
+     * group, then the second, and so on. The probes of different items do not depend
+     * on each other so the processor can have several cache misses outstanding at
+     * once, rather than waiting on each cell of one item before probing the next.
+     * An item is no longer probed once one of its cells is not set.
+     * </p>
+     * @param hashers the hashers to test.
+     * @return for each hasher {@code true} if it is in the filter.
+     * @throws IllegalArgumentException if a hasher does not produce exactly {@code k} indices.
+     */
+    public boolean[] containsAll(final Hasher... hashers) {
+        Objects.requireNonNull(hashers, "hashers");
+        boolean[] result = new boolean[hashers.length];
+        containsAll(hashers, 0, hashers.length, result);
+        return result;
+    }
+
+    /**
+     * Tests if each of the hashers is in the filter with fork/join tasks.
+     * <p>Batches of more than {@value #CONTAINS_THRESHOLD} hashers are split between
+     * tasks in the pool. The filter must not be modified until the call returns.</p>
+     * @param hashers the hashers to test.
+     * @param pool the pool to run the tasks in.
+     * @return for each hasher {@code true} if it is in the filter.
+     * @throws IllegalArgumentException if a hasher does not produce exactly {@code k} indices.
+     * @see #containsAll(Hasher...)
+     */
+    public boolean[] containsAll(final Hasher[] hashers, final ForkJoinPool pool) {
+        Objects.requireNonNull(hashers, "hashers");
+        Objects.requireNonNull(pool, "pool");
+        boolean[] result = new boolean[hashers.length];
+        pool.invoke(new ContainsTask(hashers, 0, hashers.length, result));
+        return result;
+    }
+
+    /**
+     * Tests if each of a batch of items that have already been converted to indices is in the filter.
+     * <p>Each consecutive group of {@code k} indices is one item, so the length of
+     * the array must be a multiple of the number of hash functions.</p>
+     * @param indices the indices of the items to test.
+     * @return for each item {@code true} if it is in the filter.
+     * @throws IllegalArgumentException if the length is not a multiple of {@code k} or an index
+     * is outside the filter.
+     * @see #containsAll(Hasher...)
+     */
+    public boolean[] containsAll(final int[] indices) {
+        Objects.requireNonNull(indices, "indices");
+        final int k = getShape().getNumberOfHashFunctions();
+        if (indices.length % k != 0) {
+            throw new IllegalArgumentException(
+                    String.format("Number of indices (%s) is not a multiple of k (%s)", indices.length, k));
+        }
+        for (int x : indices) {
+            checkCell(x);
+        }
+        boolean[] result = new boolean[indices.length / k];
+        probe(block(indices, k), result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Tests if each of a range of the hashers is in the filter.
+     * @param hashers the hashers.
+     * @param from the first hasher to test.
+     * @param to the hasher after the last one to test.
+     * @param result the array to receive the result for each hasher.
+     */
+    private void containsAll(Hasher[] hashers, int from, int to, boolean[] result) {
+        final int k = getShape().getNumberOfHashFunctions();
+        // the cells of one group, small enough to stay in the processor cache.
+        final int[] cells = new int[PROBE_GROUP * k];
+        // the next position in cells and the end of the cells of the current hasher.
+        final int[] pos = new int[2];
+        IntPredicate collector = x -> {
+            if (pos[0] == pos[1]) {
+                throw new IllegalArgumentException(String.format("Hasher produced more than %s indices", k));
+            }
+            checkCell(x);
+            cells[pos[0]++] = x;
+            return true;
+        };
+        for (int group = from; group < to; group += PROBE_GROUP) {
+            final int end = Math.min(to, group + PROBE_GROUP);
+            pos[0] = 0;
+            for (int i = group; i < end; i++) {
+                Hasher hasher = Objects.requireNonNull(hashers[i], "hasher");
+                pos[1] = pos[0] + k;
+                hasher.indices(getShape()).forEachIndex(collector);
+                if (pos[0] != pos[1]) {
+                    throw new IllegalArgumentException(
+                            String.format("Hasher produced %s indices, expected %s", k - (pos[1] - pos[0]), k));
+                }
+                if (shape.isBlocked()) {
+                    block(cells, pos[1] - k, pos[1]);
+                }
+            }
+            probe(cells, result, group, end - group);
+        }
+    }
+
+    /**
+     * Probes the cells of the items a group at a time.
+     * @param cells the cells of the items, {@code k} per item.
+     * @param result the array to receive the result for each item.
+     * @param offset the position in the result of the first item.
+     * @param items the number of items.
+     */
+    private void probe(int[] cells, boolean[] result, int offset, int items) {
+        final int k = getShape().getNumberOfHashFunctions();
+        for (int group = 0; group < items; group += PROBE_GROUP) {
+            final int end = Math.min(items, group + PROBE_GROUP);
+            Arrays.fill(result, offset + group, offset + end, true);
+            for (int j = 0; j < k; j++) {
+                for (int i = group; i < end; i++) {
+                    if (result[offset + i]) {
+                        result[offset + i] = buffer.isSet(cells[i * k + j]);
+                    }
                 }
             }
-            cardinality = result;
         }
-        return cardinality;
     }
 
+    /**
+     * Gets the number of cells that are set. The count is maintained by the buffer
+     * so this method does not scan the cells.
+     */
+    @Override
+    public int cardinality() {
+        return buffer.cardinality();
+    }
+
+    /**
+     * Merges the indices into the filter. In a blocked filter the indices are those
+     * of an item and are moved into the block of the first index, unless they are the
+     * cells of a blocked filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the producer is
+     * another Bloom filter or bit map.
+     * @see #isItem(IndexProducer)
+     */
     @Override
     public boolean merge(final IndexProducer indexProducer) {
         Objects.requireNonNull(indexProducer, "indexProducer");
+        if (shape.isBlocked()) {
+            return mergeCollected(indexProducer, isItem(indexProducer));
+        }
         decrement();
-        return indexProducer.forEachIndex(x -> {
-            if (x >= shape.numberOfCells() || x < 0) {
-                throw new IllegalArgumentException(
-                        String.format("Filter only accepts values in the [0,%d) range", getShape().getNumberOfBits()));
-            }
-            buffer.set(x);
-            return true;
-        });
+        return indexProducer.forEachIndex(setter);
     }
 
+    /**
+     * Merges the bits into the filter. A blocked filter only accepts the bits of a
+     * blocked filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the bits are not
+     * those of a blocked filter with the same layout.
+     * @see #isItem(IndexProducer)
+     */
     @Override
     public boolean merge(final BitMapProducer bitMapProducer) {
         Objects.requireNonNull(bitMapProducer, "bitMapProducer");
+        if (shape.isBlocked()) {
+            checkBlockedFilter(bitMapProducer);
+            return mergeCollected(IndexProducer.fromBitMapProducer(bitMapProducer), false);
+        }
         return this.merge(IndexProducer.fromBitMapProducer(bitMapProducer));
     }
 
+    /**
+     * Merges the cells of the other filter. A blocked filter only accepts a blocked
+     * filter with the same layout.
+     * @throws IllegalArgumentException if the filter is blocked and the other filter is
+     * not a blocked filter with the same layout.
+     * @see #isItem(IndexProducer)
+     */
     @Override
     public boolean merge(final BloomFilter other) {
+        if (shape.isBlocked()) {
+            checkBlockedFilter(Objects.requireNonNull(other, "other"));
+            return mergeCollected(other, false);
+        }
         return merge((IndexProducer) other);
     }
 
+    /**
+     * Tests if the indices are those of an item. The cells of a blocked stable filter
+     * with the same layout as this one are already in their blocks and are merged and
+     * tested where they are. The cells of any other Bloom filter or bit map cannot be
+     * split back into the items that set them, so their blocks are unknown.
+     * @param indexProducer the indices.
+     * @return {@code true} if the indices are those of an item, {@code false} if they
+     * are the cells of a blocked filter with the same layout.
+     * @throws IllegalArgumentException if the indices are those of any other Bloom filter or bit map.
+     */
+    private boolean isItem(final IndexProducer indexProducer) {
+        if (indexProducer instanceof BitMapProducer) {
+            checkBlockedFilter(indexProducer);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the content is the cells of a blocked stable filter with the same
+     * layout as this one.
+     * @param content the producer of the cells.
+     * @throws IllegalArgumentException if it is not.
+     * @see #isItem(IndexProducer)
+     */
+    private void checkBlockedFilter(final Object content) {
+        if (content instanceof StableBloomFilter) {
+            StableShape other = ((StableBloomFilter) content).shape;
+            if (other.cellsPerBlock == shape.cellsPerBlock && other.numberOfCells() == shape.numberOfCells()) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException(
+                "A blocked filter only accepts the cells of a blocked filter with the same layout");
+    }
+
+    /**
+     * Merges the indices into the filter. The indices are collected before the filter
+     * is changed, so if the producer fails the filter is unchanged. In a blocked filter
+     * the decrements fall in the block of the first index.
+     * @param indexProducer the indices to merge.
+     * @param item {@code true} if the indices are those of an item and are moved into
+     * the block of the first index.
+     * @return true.
+     * @throws IllegalArgumentException if an index is outside the filter.
+     */
+    private boolean mergeCollected(final IndexProducer indexProducer, boolean item) {
+        probeCount = 0;
+        indexProducer.forEachIndex(prober);
+        if (item) {
+            block(probes, 0, probeCount);
+        }
+        decrement(probeCount == 0 ? -1 : probes[0]);
+        for (int i = 0; i < probeCount; i++) {
+            buffer.set(probes[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Merges the indices of the hasher. The indices are not made unique first:
+     * setting a cell is idempotent, so a duplicate index has the same effect as a
+     * single one and this avoids the per merge bit map that uniqueIndices allocates.
+     */
     @Override
     public boolean merge(final Hasher hasher) {
         Objects.requireNonNull(hasher, "hasher");
-        return merge(hasher.uniqueIndices(getShape()));
+        return merge(hasher.indices(getShape()));
     }
 
-    @Override
-    public boolean forEachBitMap(LongPredicate consumer) {
-        Objects.requireNonNull(consumer, "consumer");
-        final int blocksm1 = BitMap.numberOfBitMaps(shape.numberOfCells()) - 1;
-        int i = 0;
-        long value;
-        // must break final block separate as the number of bits may not fall on the
-        // long boundary
-        for (int j = 0; j < blocksm1; j++) {
-            value = 0;
-            for (int k = 0; k < Long.SIZE; k++) {
-                if (buffer.isSet(i++)) {
-                    value |= BitMap.getLongBit(k);
+    /**
+     * Gets the hasher that selects the same cells as the key methods, such as
+     * {@link #mergeKey(long, long)}, for a 128 bit key. The key is mixed into the
+     * initial value and increment of an {@link EnhancedDoubleHasher}. Use this to
+     * test or merge the key in other Bloom filters of the same shape. A blocked
+     * filter moves the cells of the hasher into one block, so a filter built from
+     * this hasher only matches a filter of the same shape that is not blocked.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return the hasher for the key.
+     */
+    public static Hasher hasher(long msb, long lsb) {
+        final long initial = keyInitial(msb, lsb);
+        return new EnhancedDoubleHasher(initial, keyIncrement(initial));
+    }
+
+    /**
+     * Merges a 64 bit key, such as an id. This is the same as {@code mergeKey(0, key)}.
+     * @param key the key.
+     * @return true.
+     * @see #mergeKey(long, long)
+     */
+    public boolean mergeKey(long key) {
+        return mergeKey(0L, key);
+    }
+
+    /**
+     * Merges a 128 bit key, such as a UUID. The cells are those of
+     * {@link #hasher(long, long)} but are generated directly, so no Hasher or
+     * IndexProducer is created. Unlike {@link LargeStableBloomFilter#merge(long, long)}
+     * the longs are the key itself, not a hash of it, and are mixed before use.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return true.
+     */
+    public boolean mergeKey(long msb, long lsb) {
+        probeKey(msb, lsb);
+        decrement(probes[0]);
+        for (int i = 0; i < probeCount; i++) {
+            buffer.set(probes[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Tests if a 64 bit key is in the filter. This is the same as {@code containsKey(0, key)}.
+     * @param key the key.
+     * @return {@code true} if the key is in the filter.
+     * @see #containsKey(long, long)
+     */
+    public boolean containsKey(long key) {
+        return containsKey(0L, key);
+    }
+
+    /**
+     * Tests if a 128 bit key is in the filter without creating a Hasher or IndexProducer.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return {@code true} if the key is in the filter.
+     * @see #mergeKey(long, long)
+     */
+    public boolean containsKey(long msb, long lsb) {
+        probeKey(msb, lsb);
+        for (int i = 0; i < probeCount; i++) {
+            if (!buffer.isSet(probes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests if a 64 bit key is in the filter and then merges it. This is the same as
+     * {@code testAndMergeKey(0, key)}.
+     * @param key the key.
+     * @return {@code true} if the key was in the filter before the merge.
+     * @see #testAndMergeKey(long, long)
+     */
+    public boolean testAndMergeKey(long key) {
+        return testAndMergeKey(0L, key);
+    }
+
+    /**
+     * Tests if a 128 bit key is in the filter and then merges it without creating a
+     * Hasher or IndexProducer.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return {@code true} if the key was in the filter before the merge.
+     * @see #testAndMerge(IndexProducer)
+     */
+    public boolean testAndMergeKey(long msb, long lsb) {
+        probeKey(msb, lsb);
+        return testAndMerge(probes, 0, probeCount);
+    }
+
+    /**
+     * Tests if the hasher is in the filter and then merges it.
+     * @param hasher the hasher to test and merge.
+     * @return {@code true} if the hasher was in the filter before the merge.
+     * @see #testAndMerge(IndexProducer)
+     */
+    public boolean testAndMerge(final Hasher hasher) {
+        Objects.requireNonNull(hasher, "hasher");
+        // duplicate indices have the same effect as a single set.
+        return testAndMerge(hasher.indices(getShape()));
+    }
+
+    /**
+     * Tests if the indices are in the filter and then merges them.
+     * <p>
+     * The result and the final state of the filter are the same as calling
+     * {@link #contains(IndexProducer)} followed by {@link #merge(IndexProducer)},
+     * but the indices are produced once. All the cells are tested before any is
+     * changed so that their loads from memory overlap, and they are set again
+     * after the decrement while they are still in the processor cache.
+     * </p>
+     * @param indexProducer the indices to test and merge.
+     * @return {@code true} if all the indices were set before the merge.
+     * @throws IllegalArgumentException if an index is outside the filter.
+     */
+    public boolean testAndMerge(final IndexProducer indexProducer) {
+        Objects.requireNonNull(indexProducer, "indexProducer");
+        probeCount = 0;
+        indexProducer.forEachIndex(prober);
+        if (shape.isBlocked()) {
+            block(probes, 0, probeCount);
+        }
+        return testAndMerge(probes, 0, probeCount);
+    }
+
+    /**
+     * Tests and merges a batch of items that have already been converted to indices.
+     * <p>Each consecutive group of {@code k} indices is one item, so the length of
+     * the array must be a multiple of the number of hash functions. The results are
+     * those of testing and merging the items one at a time, in order, so an item that
+     * appears twice in the batch is reported as present the second time.</p>
+     * <p>The items are processed {@value #PROBE_GROUP} at a time. The cells of a group
+     * are first probed together, as {@link #containsAll(Hasher...)} probes them, so the
+     * cache misses of the group overlap. The items of the group are then merged in
+     * order. An item the probe found is still present unless an earlier item of the
+     * group decremented a cell to zero, and an item the probe missed may have been
+     * set by an earlier item of the group, so those items are tested again, from the
+     * cache, just before they are merged.</p>
+     * @param indices the indices of the items to test and merge.
+     * @return for each item {@code true} if it was in the filter before it was merged.
+     * @throws IllegalArgumentException if the length is not a multiple of {@code k} or an index
+     * is outside the filter.
+     * @see #testAndMerge(IndexProducer)
+     */
+    public boolean[] testAndMergeAll(final int[] indices) {
+        Objects.requireNonNull(indices, "indices");
+        boolean[] result = new boolean[indices.length / getShape().getNumberOfHashFunctions()];
+        testAndMergeAll(indices, indices.length, result);
+        return result;
+    }
+
+    /**
+     * Tests and merges the batch of items in the first {@code length} indices of the
+     * array, writing the result for each item into the result array. A caller that
+     * processes many batches reuses both arrays, so no memory is allocated per batch.
+     * The indices are not modified.
+     * @param indices the indices of the items to test and merge.
+     * @param length the number of indices to use.
+     * @param result receives, for each item, {@code true} if it was in the filter before it was merged.
+     * @throws IllegalArgumentException if the length is not a multiple of {@code k} or an index
+     * is outside the filter.
+     * @throws IndexOutOfBoundsException if the length is greater than the number of indices or the
+     * result is shorter than the number of items.
+     * @see #testAndMergeAll(int[])
+     */
+    public void testAndMergeAll(final int[] indices, final int length, final boolean[] result) {
+        Objects.requireNonNull(indices, "indices");
+        Objects.requireNonNull(result, "result");
+        final int k = getShape().getNumberOfHashFunctions();
+        if (length % k != 0) {
+            throw new IllegalArgumentException(
+                    String.format("Number of indices (%s) is not a multiple of k (%s)", length, k));
+        }
+        if (length < 0 || length > indices.length || result.length < length / k) {
+            throw new IndexOutOfBoundsException(String.format("%s indices requested from %s with %s results",
+                    length, indices.length, result.length));
+        }
+        for (int i = 0; i < length; i++) {
+            checkCell(indices[i]);
+        }
+        if (groupCells == null) {
+            groupCells = new int[PROBE_GROUP * k];
+        }
+        final int items = length / k;
+        for (int group = 0; group < items; group += PROBE_GROUP) {
+            final int count = Math.min(items - group, PROBE_GROUP);
+            System.arraycopy(indices, group * k, groupCells, 0, count * k);
+            if (shape.isBlocked()) {
+                for (int i = 0; i < count * k; i += k) {
+                    block(groupCells, i, i + k);
                 }
             }
-            if (!consumer.test(value)) {
-                return false;
+            probe(groupCells, result, group, count);
+            // true once a decrement of the group has cleared a cell.
+            boolean cleared = false;
+            for (int i = 0; i < count; i++) {
+                final int from = i * k;
+                boolean present = result[group + i];
+                if (!present || cleared) {
+                    present = true;
+                    for (int j = from; present && j < from + k; j++) {
+                        present = buffer.isSet(groupCells[j]);
+                    }
+                }
+                result[group + i] = present;
+                final int before = buffer.cardinality();
+                decrement(groupCells[from]);
+                cleared |= buffer.cardinality() < before;
+                for (int j = from; j < from + k; j++) {
+                    buffer.set(groupCells[j]);
+                }
             }
         }
-        // Final block
-        value = 0;
-        for (int k = 0; i < shape.numberOfCells(); k++) {
-            if (buffer.isSet(i++)) {
-                value |= BitMap.getLongBit(k);
+    }
+
+    /**
+     * Tests and merges the cells in a range of the array.
+     * @param cells the cells, which must be in the filter.
+     * @param from the first cell.
+     * @param to the position after the last cell.
+     * @return {@code true} if all the cells were set before the merge.
+     */
+    private boolean testAndMerge(int[] cells, int from, int to) {
+        boolean result = true;
+        for (int i = from; i < to; i++) {
+            result &= buffer.isSet(cells[i]);
+        }
+        decrement(from < to ? cells[from] : -1);
+        for (int i = from; i < to; i++) {
+            buffer.set(cells[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Merges each of the hashers into the filter.
+     * <p>
+     * The result is the same as merging the hashers one at a time, in order. With the
+     * RANDOM decrement strategy the decrement and set operations of the whole batch
+     * are generated first and then applied a region of the buffer at a time, so that
+     * the random accesses stay within the processor cache. The consecutive
+     * strategies already touch few cache lines and are applied one hasher at a time.
+     * </p>
+     * <p>
+     * If a hasher, or the iteration, throws, the hashers before it are merged and the
+     * exception is rethrown. The indices of a hasher are collected before its
+     * decrements are selected, so the failing hasher changes neither the filter nor
+     * the state of the random generator, and the filter is as if only the earlier
+     * hashers had been passed.
+     * </p>
+     * @param hashers the hashers to merge.
+     * @return true if the merge was successful.
+     * @throws IllegalArgumentException if a hasher produces an index outside the filter.
+     */
+    public boolean mergeAll(final Iterable<Hasher> hashers) {
+        Objects.requireNonNull(hashers, "hashers");
+        if (shape.decrementStrategy != DecrementStrategy.RANDOM) {
+            for (Hasher hasher : hashers) {
+                Objects.requireNonNull(hasher, "hasher");
+                mergeCollected(hasher.indices(getShape()), shape.isBlocked());
             }
+            return true;
         }
-        return consumer.test(value);
+        MergeBatch batch = newBatch();
+        try {
+            batch(hashers, batch);
+        } finally {
+            batch.apply(buffer);
+        }
+        return true;
     }
 
-    @Override
-    public boolean forEachIndex(final IntPredicate consumer) {
-        Objects.requireNonNull(consumer, "consumer");
-        for (int i = 0; i < shape.numberOfCells(); i++) {
-            if (buffer.isSet(i) && !consumer.test(i)) {
-                return false;
+    /**
+     * Merges each of the hashers into the filter with fork/join tasks.
+     * <p>
+     * The decrement and set operations of all the hashers are generated first, in
+     * order, by the calling thread. The operations are then partitioned into regions
+     * of the buffer and the regions are applied by tasks in the pool. The regions are
+     * multiples of 64 cells so no two tasks update the same word of the buffer and the
+     * tasks do not lock. As the operations of a region are applied in order the result
+     * is the same as {@link #mergeAll(Iterable)}, whatever the decrement strategy.
+     * </p>
+     * <p>The filter must not be used by other threads until the merge returns. A
+     * hasher that throws is handled as by {@link #mergeAll(Iterable)}.</p>
+     * @param hashers the hashers to merge.
+     * @param pool the pool to run the tasks in.
+     * @return true if the merge was successful.
+     * @throws IllegalArgumentException if a hasher produces an index outside the filter.
+     */
+    public boolean mergeAll(final Iterable<Hasher> hashers, final ForkJoinPool pool) {
+        Objects.requireNonNull(hashers, "hashers");
+        Objects.requireNonNull(pool, "pool");
+        MergeBatch batch = newBatch();
+        try {
+            batch(hashers, batch);
+        } finally {
+            batch.apply(buffer, pool);
+        }
+        return true;
+    }
+
+    /**
+     * Merges each of the hashers into the filter.
+     * @param hashers the hashers to merge.
+     * @return true if the merge was successful.
+     * @see #mergeAll(Iterable)
+     */
+    public boolean mergeAll(final Hasher... hashers) {
+        Objects.requireNonNull(hashers, "hashers");
+        return mergeAll(Arrays.asList(hashers));
+    }
+
+    /**
+     * Merges a batch of items that have already been converted to indices.
+     * <p>Each consecutive group of {@code k} indices is one item, so the length of
+     * the array must be a multiple of the number of hash functions.</p>
+     * @param indices the indices of the items to merge.
+     * @return true if the merge was successful.
+     * @throws IllegalArgumentException if the length is not a multiple of {@code k} or an index
+     * is outside the filter.
+     * @see #mergeAll(Iterable)
+     */
+    public boolean mergeAll(final int[] indices) {
+        Objects.requireNonNull(indices, "indices");
+        final int k = getShape().getNumberOfHashFunctions();
+        if (indices.length % k != 0) {
+            throw new IllegalArgumentException(
+                    String.format("Number of indices (%s) is not a multiple of k (%s)", indices.length, k));
+        }
+        for (int x : indices) {
+            checkCell(x);
+        }
+        final int[] cells = block(indices, k);
+        if (shape.decrementStrategy != DecrementStrategy.RANDOM) {
+            for (int i = 0; i < cells.length; i += k) {
+                decrement(cells[i]);
+                for (int j = i; j < i + k; j++) {
+                    buffer.set(cells[j]);
+                }
             }
+            return true;
+        }
+        batch(cells).apply(buffer);
+        return true;
+    }
+
+    /**
+     * Merges a batch of items that have already been converted to indices with fork/join tasks.
+     * @param indices the indices of the items to merge.
+     * @param pool the pool to run the tasks in.
+     * @return true if the merge was successful.
+     * @throws IllegalArgumentException if the length is not a multiple of {@code k} or an index
+     * is outside the filter.
+     * @see #mergeAll(int[])
+     * @see #mergeAll(Iterable, ForkJoinPool)
+     */
+    public boolean mergeAll(final int[] indices, final ForkJoinPool pool) {
+        Objects.requireNonNull(indices, "indices");
+        Objects.requireNonNull(pool, "pool");
+        final int k = getShape().getNumberOfHashFunctions();
+        if (indices.length % k != 0) {
+            throw new IllegalArgumentException(
+                    String.format("Number of indices (%s) is not a multiple of k (%s)", indices.length, k));
+        }
+        for (int x : indices) {
+            checkCell(x);
         }
+        batch(block(indices, k)).apply(buffer, pool);
         return true;
     }
 
+    /**
+     * Creates an empty batch sized for 1024 hashers.
+     * @return the batch.
+     */
+    private MergeBatch newBatch() {
+        final int k = getShape().getNumberOfHashFunctions();
+        return new MergeBatch(shape.numberOfCells(), 1024 * (k + decrements.length));
+    }
+
+    /**
+     * Generates the operations of merging each of the hashers. The indices of a hasher
+     * are collected before its decrements are selected, so if a hasher throws the batch
+     * holds the operations of the hashers before it and the random generator has not
+     * been advanced for it.
+     * @param hashers the hashers to merge.
+     * @param batch the batch to add the operations to.
+     */
+    private void batch(final Iterable<Hasher> hashers, final MergeBatch batch) {
+        for (Hasher hasher : hashers) {
+            Objects.requireNonNull(hasher, "hasher");
+            probeCount = 0;
+            hasher.indices(getShape()).forEachIndex(prober);
+            if (shape.isBlocked()) {
+                block(probes, 0, probeCount);
+            }
+            decrement(batch, probeCount == 0 ? -1 : probes[0]);
+            // duplicate indices have the same effect as a single set.
+            for (int i = 0; i < probeCount; i++) {
+                batch.set(probes[i]);
+            }
+        }
+    }
+
+    /**
+     * Generates the operations of merging each group of {@code k} indices.
+     * @param indices the indices of the items to merge.
+     * @return the batch of operations.
+     */
+    private MergeBatch batch(final int[] indices) {
+        final int k = getShape().getNumberOfHashFunctions();
+        MergeBatch batch = new MergeBatch(shape.numberOfCells(), indices.length / k * (k + decrements.length));
+        for (int i = 0; i < indices.length; i += k) {
+            decrement(batch, indices[i]);
+            for (int j = i; j < i + k; j++) {
+                batch.set(indices[j]);
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean forEachBitMap(LongPredicate consumer) {
+        return buffer.forEachBitMap(consumer);
+    }
+
+    @Override
+    public boolean forEachIndex(final IntPredicate consumer) {
+        return buffer.forEachIndex(consumer);
+    }
+
     @Override
     public StableBloomFilter copy() {
         return new StableBloomFilter( this.shape, this.buffer.copy() );
@@ -168,12 +919,216 @@ public class StableBloomFilter implements BloomFilter {
         return bf;
     }
 
+    /**
+     * Checks that the cell is in the filter.
+     * @param x the cell to check.
+     * @throws IllegalArgumentException if the cell is not in the filter.
+     */
+    private void checkCell(int x) {
+        if (x >= shape.numberOfCells() || x < 0) {
+            throw new IllegalArgumentException(
+                    String.format("Filter only accepts values in the [0,%d) range", getShape().getNumberOfBits()));
+        }
+    }
+
+    /**
+     * Sets the cell.
+     * @param x the cell to set.
+     * @return true.
+     * @throws IllegalArgumentException if the cell is not in the filter.
+     */
+    private boolean setCell(int x) {
+        checkCell(x);
+        buffer.set(x);
+        return true;
+    }
+
+    /**
+     * Records the cell in the probes.
+     * @param x the cell to record.
+     * @return true.
+     * @throws IllegalArgumentException if the cell is not in the filter.
+     */
+    private boolean probeCell(int x) {
+        checkCell(x);
+        if (probeCount == probes.length) {
+            probes = Arrays.copyOf(probes, probeCount * 2 + 1);
+        }
+        probes[probeCount++] = x;
+        return true;
+    }
+
+    /**
+     * Mixes a key into the initial value of the enhanced double hash.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     * @return the initial value.
+     */
+    private static long keyInitial(long msb, long lsb) {
+        return IndexGenerator.mix(lsb ^ IndexGenerator.mix(msb));
+    }
+
+    /**
+     * Derives the increment of the enhanced double hash from the initial value.
+     * @param initial the initial value.
+     * @return the increment.
+     */
+    private static long keyIncrement(long initial) {
+        return IndexGenerator.mix(initial + SplitMixGenerator.GOLDEN_GAMMA);
+    }
+
+    /**
+     * Generates the cells of a key into the probes. The cells are those that the
+     * EnhancedDoubleHasher of {@link #hasher(long, long)} produces, moved into the block
+     * of the first cell when the shape is blocked.
+     * @param msb the most significant bits of the key.
+     * @param lsb the least significant bits of the key.
+     */
+    private void probeKey(long msb, long lsb) {
+        final int bits = shape.numberOfCells();
+        final int k = getShape().getNumberOfHashFunctions();
+        if (probes.length < k) {
+            probes = new int[k];
+        }
+        final long initial = keyInitial(msb, lsb);
+        int index = BitMap.mod(initial, bits);
+        int inc = BitMap.mod(keyIncrement(initial), bits);
+        int i = 0;
+        // when k > bits the tetrahedral term restarts every bits indices.
+        for (int j = k; j > 0;) {
+            final int block = Math.min(j, bits);
+            j -= block;
+            for (int t = 0; t < block; t++) {
+                probes[i++] = index;
+                index -= inc;
+                index = index < 0 ? index + bits : index;
+                inc -= t;
+                inc = inc < 0 ? inc + bits : inc;
+            }
+        }
+        probeCount = k;
+        if (shape.isBlocked()) {
+            block(probes, 0, k);
+        }
+    }
+
     private void decrement() {
-        cardinality = -1;
-        idxFactory.indices(shape.decrementShape).forEachIndex(x -> {
-            buffer.decrement(x);
-            return true;
-        });
+        final int cells = shape.numberOfCells();
+        if (shape.decrementStrategy != DecrementStrategy.RANDOM) {
+            decrementFrom(nextStart());
+            return;
+        }
+        idxFactory.fill(decrements, decrements.length, cells);
+        buffer.decrement(decrements, decrements.length);
+    }
+
+    /**
+     * Decrements the filter for the merge of an item. When the shape is blocked and
+     * the strategy is RANDOM the decrements fall in the block of the item.
+     * @param cell the first cell of the item, or -1 if it has none.
+     */
+    private void decrement(int cell) {
+        if (!shape.isBlocked() || cell < 0 || shape.decrementStrategy != DecrementStrategy.RANDOM) {
+            decrement();
+            return;
+        }
+        final int base = cell & ~blockMask;
+        idxFactory.fill(decrements, decrements.length, shape.cellsPerBlock);
+        for (int i = 0; i < decrements.length; i++) {
+            decrements[i] += base;
+        }
+        buffer.decrement(decrements, decrements.length);
+    }
+
+    /**
+     * Adds the decrements of one merge to the batch. The cells are the same as
+     * {@link #decrement(int)} would have selected.
+     * @param batch the batch to add the decrements to.
+     * @param cell the first cell of the item, or -1 if it has none.
+     */
+    private void decrement(MergeBatch batch, int cell) {
+        final int cells = shape.numberOfCells();
+        if (shape.decrementStrategy != DecrementStrategy.RANDOM) {
+            int next = nextStart();
+            for (int i = 0; i < decrements.length; i++) {
+                batch.decrement(next);
+                next = next + 1 == cells ? 0 : next + 1;
+            }
+            return;
+        }
+        if (shape.isBlocked() && cell >= 0) {
+            final int base = cell & ~blockMask;
+            idxFactory.fill(decrements, decrements.length, shape.cellsPerBlock);
+            for (int i = 0; i < decrements.length; i++) {
+                batch.decrement(base + decrements[i]);
+            }
+            return;
+        }
+        idxFactory.fill(decrements, decrements.length, cells);
+        for (int i = 0; i < decrements.length; i++) {
+            batch.decrement(decrements[i]);
+        }
+    }
+
+    /**
+     * Moves the cells of an item into the block of its first cell.
+     * @param cells the cells.
+     * @param from the first cell of the item.
+     * @param to the position after the last cell of the item.
+     */
+    private void block(int[] cells, int from, int to) {
+        if (from < to) {
+            final int base = cells[from] & ~blockMask;
+            for (int i = from + 1; i < to; i++) {
+                cells[i] = base | (cells[i] & blockMask);
+            }
+        }
+    }
+
+    /**
+     * Moves the cells of each item of a batch into the block of its first cell.
+     * @param indices the indices of the items, {@code k} per item.
+     * @param k the number of indices per item.
+     * @return the indices if the shape is not blocked, otherwise a copy with the cells moved.
+     */
+    private int[] block(int[] indices, int k) {
+        if (!shape.isBlocked()) {
+            return indices;
+        }
+        int[] result = indices.clone();
+        for (int i = 0; i < result.length; i += k) {
+            block(result, i, i + k);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the first cell of the next run of consecutive decrements.
+     * @return the first cell to decrement.
+     */
+    private int nextStart() {
+        final int cells = shape.numberOfCells();
+        if (shape.decrementStrategy == DecrementStrategy.CONSECUTIVE) {
+            return idxFactory.nextInt(cells);
+        }
+        int start = sweep;
+        sweep = (int) ((sweep + (long) decrements.length) % cells);
+        return start;
+    }
+
+    /**
+     * Decrements P consecutive cells wrapping at the end of the buffer.
+     * @param start the first cell to decrement.
+     */
+    private void decrementFrom(int start) {
+        final int cells = shape.numberOfCells();
+        int remaining = decrements.length;
+        while (remaining > 0) {
+            int count = Math.min(remaining, cells - start);
+            buffer.decrementRange(start, count);
+            remaining -= count;
+            start = 0;
+        }
     }
     
     /**
@@ -221,4 +1176,40 @@ public class StableBloomFilter implements BloomFilter {
         }
         return estimate>Integer.MAX_VALUE?Integer.MAX_VALUE:(int) estimate;
     }
+
+    /**
+     * Tests a range of hashers, splitting the range while it has more than
+     * {@link #CONTAINS_THRESHOLD} hashers.
+     */
+    private final class ContainsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Hasher[] hashers;
+        private final int from;
+        private final int to;
+        private final boolean[] result;
+
+        /**
+         * Constructor.
+         * @param hashers the hashers.
+         * @param from the first hasher to test.
+         * @param to the hasher after the last one to test.
+         * @param result the array to receive the result for each hasher.
+         */
+        ContainsTask(Hasher[] hashers, int from, int to, boolean[] result) {
+            this.hashers = hashers;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CONTAINS_THRESHOLD) {
+                containsAll(hashers, from, to, result);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ContainsTask(hashers, from, mid, result), new ContainsTask(hashers, mid, to, result));
+            }
+        }
+    }
 }
@@ -1,8 +1,14 @@
 package org.xenei.bloomfilter.stable;
 
+import java.util.Objects;
+
 import org.apache.commons.collections4.bloomfilter.Shape;
 
 public class StableShape implements BufferShape {
+    /**
+     * The number of bytes in a block of a blocked filter, the size of a processor cache line.
+     */
+    public static final int BLOCK_BYTES = 64;
 
     private Shape shape;
     /**
@@ -19,7 +25,9 @@ public class StableShape implements BufferShape {
      */
     public final int expectedCardinality;
     /**
-     * The false positive rate when filter is stable.
+     * The false positive rate when filter is stable. For a blocked filter this is
+     * the rate adjusted for the size of the block.
+     * @see #calculateBlockedFps(int, int, double)
      */
     public final double fps;
     /**
@@ -32,6 +40,20 @@ public class StableShape implements BufferShape {
      * The number of bits per cell/entry.
      */
     private final byte bitsPerCell;
+    /**
+     * The strategy for selecting the cells to decrement.
+     */
+    public final DecrementStrategy decrementStrategy;
+    /**
+     * The number of cells in a block, or 0 if the filter is not blocked.
+     * <p>In a blocked filter all the cells of an item fall in the block of its first
+     * cell and, with the RANDOM strategy, so do the cells it decrements.</p>
+     */
+    public final int cellsPerBlock;
+    /**
+     * The pseudo random generator that selects the cells to decrement.
+     */
+    public final RandomEngine randomEngine;
 
     /**
      * Constructs an empty builder.
@@ -50,31 +72,136 @@ public class StableShape implements BufferShape {
         return new Builder(shape);
     }
 
-    private StableShape(double fps, int m, int k, int p, int max) {
-        this.shape = Shape.fromPMK(fps, m, k);
+    private StableShape(double fps, int m, int k, int p, int max, DecrementStrategy decrementStrategy,
+            int cellsPerBlock, RandomEngine randomEngine) {
         this.resetValue = max;
         this.decrementShape = Shape.fromKM(p, m);
-        this.fps = fps;
-        int bits = Byte.SIZE;
-        for (int i = 1; i < Byte.SIZE; i++) {
-            if ((max >> i) == 0) {
-                bits = i;
-                break;
-            }
-        }
-        this.bitsPerCell = (byte) bits;
+        this.decrementStrategy = decrementStrategy;
+        this.cellsPerBlock = cellsPerBlock;
+        this.randomEngine = randomEngine;
+        // the number of bits required to hold max.
+        this.bitsPerCell = (byte) (Integer.SIZE - Integer.numberOfLeadingZeros(max));
 
-        this.stablePoint = Math.pow(1.0 / (1 + (1.0 / (p * ((1.0 / k) - (1.0 / m))))), max);
+        this.stablePoint = calculateStablePoint(decrementCells(m, cellsPerBlock, decrementStrategy), k, p, max);
         this.expectedCardinality = (int) Math.ceil((1.0 - stablePoint) * m);
+        this.fps = cellsPerBlock == 0 ? fps : calculateBlockedFps(cellsPerBlock, k, stablePoint);
+        this.shape = Shape.fromPMK(this.fps, m, k);
         BufferShape.verifySettings(this);
     }
 
+    /**
+     * Gets the number of cells that the decrements of an insertion are spread over.
+     * @param m the number of cells.
+     * @param cellsPerBlock the number of cells in a block, or 0 if the filter is not blocked.
+     * @param decrementStrategy the decrement strategy.
+     * @return the block size for blocked filters with the RANDOM strategy, {@code m} otherwise.
+     */
+    private static int decrementCells(int m, int cellsPerBlock, DecrementStrategy decrementStrategy) {
+        return cellsPerBlock != 0 && decrementStrategy == DecrementStrategy.RANDOM ? cellsPerBlock : m;
+    }
+
+    /**
+     * Calculates the number of cells in a {@value #BLOCK_BYTES} byte block.
+     * <p>The cells are counted in power of 2 lanes, as a word buffer stores them, so
+     * a block is a whole number of words. It is one cache line only in a word buffer
+     * whose words start on a {@value #BLOCK_BYTES} byte boundary, such as the
+     * {@link AbstractWordBufferManager.Direct} buffer. In a heap or compact buffer a
+     * block may straddle two lines.</p>
+     * @param max the value a cell is set to.
+     * @return the number of cells in a block.
+     */
+    static int calculateCellsPerBlock(int max) {
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(max);
+        int laneBits = Integer.highestOneBit(bits * 2 - 1);
+        return BLOCK_BYTES * Byte.SIZE / laneBits;
+    }
+
+    /**
+     * Calculates the false positive rate of a stable blocked filter.
+     * <p>
+     * With RANDOM decrements in the block the ratio of sets to decrements is the same
+     * in every block, so each block is stable at the stable point of a filter of
+     * {@code cellsPerBlock} cells. The number of set cells in a block still varies
+     * about the mean and, as the rate rises faster than linearly with it, fuller
+     * blocks add more false positives than emptier blocks remove. The rate is
+     * calculated by treating the number of set cells in a block as binomial and
+     * averaging {@code (set/cellsPerBlock)^k} over it. It tends to
+     * {@code (1-stablePoint)^k} as the block grows.
+     * </p>
+     * @param cellsPerBlock the number of cells in a block.
+     * @param k the number of cells set on each insertion.
+     * @param stablePoint the expected fraction of zero cells.
+     * @return the false positive rate.
+     */
+    static double calculateBlockedFps(int cellsPerBlock, int k, double stablePoint) {
+        if (stablePoint <= 0) {
+            return 1.0;
+        }
+        if (stablePoint >= 1) {
+            return 0.0;
+        }
+        double logSet = Math.log1p(-stablePoint);
+        double logZero = Math.log(stablePoint);
+        // log of the probability that exactly x cells are set, starting at x = 0.
+        double logP = cellsPerBlock * logZero;
+        double result = 0;
+        for (int x = 1; x <= cellsPerBlock; x++) {
+            logP += Math.log((cellsPerBlock - x + 1.0) / x) + logSet - logZero;
+            result += Math.exp(logP + k * Math.log((double) x / cellsPerBlock));
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the stable point, the expected fraction of zero cells once the filter is stable.
+     * @param m the number of cells.
+     * @param k the number of cells set on each insertion.
+     * @param p the number of cells decremented on each insertion.
+     * @param max the value a cell is set to.
+     * @return the stable point.
+     */
+    static double calculateStablePoint(double m, int k, int p, int max) {
+        return Math.pow(1.0 / (1 + (1.0 / (p * ((1.0 / k) - (1.0 / m))))), max);
+    }
+
+    /**
+     * Calculates the number of hash functions for the false positive rate.
+     * @param fps the false positive rate when the filter is stable.
+     * @return the number of hash functions.
+     */
+    static int calculateK(double fps) {
+        // log2(1/fps) by log rule
+        return (int) Math.ceil(Math.log(1 / fps) / Math.log(2));
+    }
+
+    /**
+     * Calculates the number of cells to decrement on each insertion so that the
+     * filter is stable at the false positive rate.
+     * @param fps the false positive rate when the filter is stable.
+     * @param m the number of cells.
+     * @param k the number of cells set on each insertion.
+     * @param max the value a cell is set to.
+     * @return the number of cells to decrement.
+     */
+    static int calculateP(double fps, double m, int k, int max) {
+        double oneOverK = 1.0 / k;
+        double leftDenom = 1.0 / Math.pow(1 - Math.pow(fps, oneOverK), (1.0 / max)) - 1;
+        double rightDenom = oneOverK - 1.0 / m;
+        int p = (int) Math.ceil(1.0 / (leftDenom * rightDenom));
+        if (p > m) {
+            // adjustment for cases where K is "close to" M
+            p = (int) Math.ceil(1.0 / (leftDenom * oneOverK));
+        }
+        return p;
+    }
+
     @Override
     public String toString() {
         return String.format(
-                "StableShape[k=%s m=%s fps=%s stable point=%s expected cardinality=%s decrement count=%s reset value=%s]",
+                "StableShape[k=%s m=%s fps=%s stable point=%s expected cardinality=%s decrement count=%s decrement strategy=%s reset value=%s cells per block=%s random engine=%s]",
                 getNumberOfHashFunctions(), numberOfCells(), fps, stablePoint, expectedCardinality,
-                decrementShape.getNumberOfHashFunctions(), resetValue);
+                decrementShape.getNumberOfHashFunctions(), decrementStrategy, resetValue, cellsPerBlock,
+                randomEngine);
     }
 
     /**
@@ -100,6 +227,14 @@ public class StableShape implements BufferShape {
         return shape.getNumberOfBits();
     }
 
+    /**
+     * Tests if the filter is blocked.
+     * @return {@code true} if the cells of an item fall in a single block.
+     */
+    public boolean isBlocked() {
+        return cellsPerBlock != 0;
+    }
+
     @Override
     public byte bitsPerCell() {
         return bitsPerCell;
@@ -126,6 +261,12 @@ public class StableShape implements BufferShape {
         private int p = UNSET;
         // value to reset to
         private int max = 2;
+        // how to select the cells to decrement
+        private DecrementStrategy decrementStrategy = DecrementStrategy.RANDOM;
+        // true if the cells of an item fall in a single block
+        private boolean blocked;
+        // the generator of the cells to decrement
+        private RandomEngine randomEngine = RandomEngine.SPLIT_MIX;
 
         private Builder() {
         }
@@ -175,7 +316,8 @@ public class StableShape implements BufferShape {
         }
 
         /**
-         * Sets the value to set in each cell on insertion.  Must be in the range [1,255]
+         * Sets the value to set in each cell on insertion.  Must be in the range [1,65535].
+         * Values above 255 require more than 8 bits per cell.
          * @param max the value to set eaach cell on insertion.
          * @return this for chaining.
          */
@@ -187,17 +329,56 @@ public class StableShape implements BufferShape {
         /**
          * Sets the number of bits to be used for each insertion.  Setting this value will
          * reset max to be the maximum value that will fit in the specified number of bits.
-         * @param d the number of bits to use.  Must be in the range [1,8].
+         * @param d the number of bits to use.  Must be in the range [1,16].
          * @return this for chaining.
          */
         public Builder setD(int d) {
-            if (d > Byte.SIZE || d < 1) {
-                throw new IllegalArgumentException("D must be in the range [1,8]");
+            if (d > Short.SIZE || d < 1) {
+                throw new IllegalArgumentException("D must be in the range [1,16]");
             }
             max = (1 << d) - 1;
             return this;
         }
 
+        /**
+         * Sets the strategy for selecting the cells to decrement on each insertion.
+         * Defaults to {@link DecrementStrategy#RANDOM}.
+         * @param decrementStrategy the decrement strategy.
+         * @return this for chaining.
+         */
+        public Builder setDecrementStrategy(DecrementStrategy decrementStrategy) {
+            this.decrementStrategy = Objects.requireNonNull(decrementStrategy, "decrementStrategy");
+            return this;
+        }
+
+        /**
+         * Sets whether the filter is blocked. In a blocked filter the first cell of an item
+         * selects a {@value StableShape#BLOCK_BYTES} byte block and the other cells of the
+         * item, and with the RANDOM strategy the cells it decrements, fall in that block.
+         * An insertion touches at most two cache lines in the heap buffer that
+         * {@link AbstractBufferManager#instance(BufferShape)} creates for blocked shapes, and
+         * one when the filter is given an aligned {@link AbstractWordBufferManager.Direct}
+         * buffer. {@code m} is rounded up to a
+         * whole number of blocks. Defaults to {@code false}.
+         * @param blocked {@code true} for a blocked filter.
+         * @return this for chaining.
+         */
+        public Builder setBlocked(boolean blocked) {
+            this.blocked = blocked;
+            return this;
+        }
+
+        /**
+         * Sets the pseudo random generator that selects the cells to decrement.
+         * Defaults to {@link RandomEngine#SPLIT_MIX}.
+         * @param randomEngine the random engine.
+         * @return this for chaining.
+         */
+        public Builder setRandomEngine(RandomEngine randomEngine) {
+            this.randomEngine = Objects.requireNonNull(randomEngine, "randomEngine");
+            return this;
+        }
+
         private void checkSettings() {
             if (m <= 1) {
                 throw new IllegalArgumentException("M must be greater than 1");
@@ -205,25 +386,26 @@ public class StableShape implements BufferShape {
             if (k <= UNSET && fps <= UNSET) {
                 throw new IllegalArgumentException("Either K or Fps must be greater than 0");
             }
-            if (max <= UNSET || max > 0xFF) {
-                throw new IllegalArgumentException("Max must be in the range [1,255]");
+            if (max <= UNSET || max > 0xFFFF) {
+                throw new IllegalArgumentException("Max must be in the range [1,65535]");
+            }
+            if (blocked) {
+                long cellsPerBlock = calculateCellsPerBlock(max);
+                long blocks = (m + cellsPerBlock - 1) / cellsPerBlock;
+                if (blocks * cellsPerBlock > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("M is too large for a blocked filter");
+                }
+                m = (int) (blocks * cellsPerBlock);
             }
             if (k <= UNSET) {
-                // log2(1/fps) by log rule
-                k = (int) Math.ceil(Math.log(1 / fps) / Math.log(2));
+                k = calculateK(fps);
             }
             if (fps <= UNSET) {
                 fps = 1 / Math.pow(2, k);
             }
             if (p <= UNSET) {
-                double oneOverK = 1.0 / k;
-                double leftDenom = 1.0 / Math.pow(1 - Math.pow(fps, oneOverK), (1.0 / max)) - 1;
-                double rightDenom = oneOverK - 1.0 / m;
-                p = (int) Math.ceil(1.0 / (leftDenom * rightDenom));
-                if (p > m) {
-                    // adjustment for cases where K is "close to" M
-                    p = (int) Math.ceil(1.0 / (leftDenom * oneOverK));
-                }
+                p = calculateP(fps, decrementCells(m, blocked ? calculateCellsPerBlock(max) : 0, decrementStrategy),
+                        k, max);
             }
         }
 
@@ -233,7 +415,8 @@ public class StableShape implements BufferShape {
          */
         public StableShape build() {
             checkSettings();
-            return new StableShape(fps, m, k, p, max);
+            return new StableShape(fps, m, k, p, max, decrementStrategy, blocked ? calculateCellsPerBlock(max) : 0,
+                    randomEngine);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package org.xenei.bloomfilter.stable;
+
+/**
+ * Generates indices with the
+ * <a href="https://prng.di.unimi.it/xoroshiro128plus.c">xoroshiro128+</a> algorithm
+ * of Blackman and Vigna. The low bits of its values are weak but the range
+ * reduction only uses the high 32 bits.
+ */
+final class XoroshiroGenerator extends IndexGenerator {
+    private long s0;
+    private long s1;
+
+    /**
+     * Constructs a generator. The two words of state are expanded from the seed with
+     * SplitMix64 so they are never both zero.
+     * @param seed the seed.
+     */
+    XoroshiroGenerator(long seed) {
+        this.s0 = mix(seed + SplitMixGenerator.GOLDEN_GAMMA);
+        this.s1 = mix(seed + 2 * SplitMixGenerator.GOLDEN_GAMMA);
+    }
+
+    private long nextLong() {
+        final long a = s0;
+        long b = s1;
+        final long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public int nextInt(int limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public long nextLong(long limit) {
+        return reduce(nextLong(), limit);
+    }
+
+    @Override
+    public void fill(int[] out, int count, int limit) {
+        long a = s0;
+        long b = s1;
+        for (int i = 0; i < count; i++) {
+            out[i] = reduce(a + b, limit);
+            b ^= a;
+            a = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+            b = Long.rotateLeft(b, 37);
+        }
+        s0 = a;
+        s1 = b;
+    }
+
+    @Override
+    public XoroshiroGenerator split() {
+        return new XoroshiroGenerator(nextLong());
+    }
+}
@@ -0,0 +1,70 @@
+package org.xenei.bloomfilter.stable;
+
+import org.apache.commons.collections4.bloomfilter.BloomFilter;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the merge and contains times, the recall of the items in the window and
+ * the false positive rates of a stable filter and an age partitioned filter that
+ * use the same amount of memory.
+ */
+public class AgePartitionedBenchmark {
+
+    private static final int WINDOW = 1_000_000;
+    private static final int GENERATIONS = 8;
+    private static final int STREAM = 10_000_000;
+    private static final int ITEMS = 1_000_000;
+
+    private static Hasher hasher(long i) {
+        return new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+    }
+
+    public static void main(String[] args) {
+        StableShape stableShape = StableShape.builder(Shape.fromNP(WINDOW, 0.01)).setMax(3).build();
+        StableBloomFilter stable = new StableBloomFilter(stableShape);
+        // 2 bits per cell for the stable filter, the same number of bits split across the generations.
+        int itemsPerGeneration = WINDOW / (GENERATIONS - 1);
+        int bits = stableShape.numberOfCells() * 2 / GENERATIONS;
+        AgePartitionedBloomFilter aged = new AgePartitionedBloomFilter(Shape.fromNM(itemsPerGeneration, bits),
+                GENERATIONS, itemsPerGeneration);
+        System.out.println("Stable: " + stableShape);
+        System.out.println("Aged: " + aged.getShape() + " x " + GENERATIONS);
+        System.out.format("%8s %14s %14s %12s %12s%n", "filter", "merge ns/op", "contains ns/op", "recall",
+                "measured fps");
+        run("stable", stable);
+        run("aged", aged);
+    }
+
+    private static void run(String name, BloomFilter filter) {
+        Shape shape = filter.getShape();
+        for (long i = 0; i < STREAM - ITEMS; i++) {
+            filter.merge(hasher(i).indices(shape));
+        }
+        long start = System.nanoTime();
+        for (long i = STREAM - ITEMS; i < STREAM; i++) {
+            filter.merge(hasher(i).indices(shape));
+        }
+        long merge = System.nanoTime() - start;
+
+        // the last WINDOW items, the oldest first.
+        int found = 0;
+        start = System.nanoTime();
+        for (long i = STREAM - WINDOW; i < STREAM; i++) {
+            if (filter.contains(hasher(i).indices(shape))) {
+                found++;
+            }
+        }
+        long contains = System.nanoTime() - start;
+
+        int falsePositives = 0;
+        for (long i = STREAM; i < STREAM + ITEMS; i++) {
+            if (filter.contains(hasher(i).indices(shape))) {
+                falsePositives++;
+            }
+        }
+        System.out.format("%8s %14.2f %14.2f %12.5f %12.5f%n", name, merge * 1.0 / ITEMS,
+                contains * 1.0 / WINDOW, found * 1.0 / WINDOW, falsePositives * 1.0 / ITEMS);
+    }
+}
@@ -0,0 +1,115 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.commons.collections4.bloomfilter.BitMapProducer;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.apache.commons.collections4.bloomfilter.SimpleBloomFilter;
+import org.junit.jupiter.api.Test;
+
+public class AgePartitionedBloomFilterTest {
+
+    private final Shape shape = Shape.fromKM(5, 2000);
+
+    private static Hasher hasher(int i) {
+        return new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+    }
+
+    @Test
+    public void constructorTest() {
+        AgePartitionedBloomFilter underTest = new AgePartitionedBloomFilter(shape, 4, 10);
+        assertEquals(shape, underTest.getShape());
+        assertEquals(4, underTest.numberOfGenerations());
+        assertEquals(10, underTest.getItemsPerGeneration());
+        assertEquals(30, underTest.windowSize());
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(shape, 1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new AgePartitionedBloomFilter(shape, 4, 0));
+    }
+
+    @Test
+    public void windowTest() {
+        AgePartitionedBloomFilter underTest = new AgePartitionedBloomFilter(shape, 4, 10);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(underTest.merge(hasher(i)));
+            // the most recent items are always found
+            for (int j = Math.max(0, i - 30); j <= i; j++) {
+                assertTrue(underTest.contains(hasher(j)), "item " + j + " after " + i);
+            }
+            // items older than the generations are forgotten. At 10 items per 2000 bit generation
+            // a false positive is rare and these hashers produce none.
+            if (i >= 40) {
+                assertFalse(underTest.contains(hasher(i - 40)), "item " + (i - 40) + " after " + i);
+            }
+        }
+    }
+
+    @Test
+    public void advanceTest() {
+        AgePartitionedBloomFilter underTest = new AgePartitionedBloomFilter(shape, 3, 1000);
+        underTest.merge(hasher(1));
+        underTest.advance();
+        underTest.merge(hasher(2));
+        underTest.advance();
+        assertTrue(underTest.contains(hasher(1)));
+        assertTrue(underTest.contains(hasher(2)));
+        underTest.advance();
+        assertFalse(underTest.contains(hasher(1)));
+        assertTrue(underTest.contains(hasher(2)));
+        underTest.clear();
+        assertFalse(underTest.contains(hasher(2)));
+        assertEquals(0, underTest.cardinality());
+    }
+
+    @Test
+    public void unionTest() {
+        AgePartitionedBloomFilter underTest = new AgePartitionedBloomFilter(shape, 3, 1);
+        SimpleBloomFilter expected = new SimpleBloomFilter(shape);
+        for (int i = 0; i < 3; i++) {
+            underTest.merge(hasher(i));
+            expected.merge(hasher(i));
+        }
+        assertEquals(expected.cardinality(), underTest.cardinality());
+        assertEquals(expected.cardinality(), underTest.asIndexArray().length);
+        assertTrue(expected.contains(underTest));
+        // the bits of expected are spread over the generations so no single generation contains them.
+        assertFalse(underTest.contains(expected));
+        assertFalse(underTest.contains((BitMapProducer) expected));
+        SimpleBloomFilter newest = new SimpleBloomFilter(shape);
+        newest.merge(hasher(2));
+        assertTrue(underTest.contains(newest));
+        assertTrue(underTest.contains((BitMapProducer) newest));
+        SimpleBloomFilter larger = new SimpleBloomFilter(Shape.fromKM(5, 4096));
+        larger.merge(hasher(2).indices(shape));
+        assertTrue(underTest.contains(larger));
+        larger.merge(IndexProducer.fromIndexArray(4000));
+        assertFalse(underTest.contains(larger));
+
+        // a filter is merged as a single item
+        AgePartitionedBloomFilter other = new AgePartitionedBloomFilter(shape, 3, 10);
+        other.merge(expected);
+        assertTrue(other.contains(hasher(0)));
+        assertEquals(expected.cardinality(), other.cardinality());
+
+        AgePartitionedBloomFilter copy = underTest.copy();
+        underTest.clear();
+        assertTrue(copy.contains(hasher(1)));
+        copy.merge(hasher(3));
+        assertFalse(copy.contains(hasher(0)));
+    }
+
+    @Test
+    public void mergeOutOfRangeTest() {
+        AgePartitionedBloomFilter underTest = new AgePartitionedBloomFilter(shape, 3, 10);
+        assertThrows(IllegalArgumentException.class, () -> underTest.merge(IndexProducer.fromIndexArray(2000)));
+        assertThrows(IllegalArgumentException.class, () -> underTest.merge(IndexProducer.fromIndexArray(-1)));
+        SimpleBloomFilter larger = new SimpleBloomFilter(Shape.fromKM(5, 2048));
+        larger.merge(IndexProducer.fromIndexArray(2047));
+        assertThrows(IllegalArgumentException.class, () -> underTest.merge(larger));
+    }
+}
@@ -0,0 +1,165 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class AtomicBufferManagerTest {
+
+    private static final int THREADS = 4;
+
+    private AtomicBufferManager underTest;
+    private Shape testShape = Shape.fromKM(3, 1024);
+
+    private static void runThreads(IntConsumerTask task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.run(id);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntConsumerTask {
+        void run(int id);
+    }
+
+    @Test
+    public void setGetDecrementTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new AtomicBufferManager(shape);
+        underTest.set(17);
+        assertEquals(4, underTest.get(17));
+        underTest.decrement(17);
+        assertEquals(3, underTest.get(17));
+        underTest.func(17, 2, (x, y) -> x - y);
+        assertEquals(1, underTest.get(17));
+        underTest.decrement(17);
+        underTest.decrement(17);
+        assertFalse(underTest.isSet(17));
+        assertEquals(0, underTest.cardinality());
+        underTest.set(1);
+        assertEquals(1, underTest.cardinality());
+        AtomicBufferManager copy = underTest.copy();
+        underTest.clear();
+        assertFalse(underTest.isSet(1));
+        assertEquals(0, underTest.cardinality());
+        assertTrue(copy.isSet(1));
+        assertEquals(1, copy.cardinality());
+    }
+
+    @Test
+    public void concurrentSetTest() throws InterruptedException {
+        StableShape shape = StableShape.builder(testShape).setMax(3).build();
+        underTest = new AtomicBufferManager(shape);
+        // threads set interleaved cells so they all contend for the same words.
+        runThreads(id -> {
+            for (int i = id; i < shape.numberOfCells(); i += THREADS) {
+                underTest.set(i);
+            }
+        });
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(3, underTest.get(i));
+        }
+        assertEquals(shape.numberOfCells(), underTest.cardinality());
+    }
+
+    @Test
+    public void concurrentDecrementTest() throws InterruptedException {
+        StableShape shape = StableShape.builder(testShape).setMax(255).build();
+        underTest = new AtomicBufferManager(shape);
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            underTest.set(i);
+        }
+        // every thread decrements every cell 50 times.
+        runThreads(id -> {
+            for (int j = 0; j < 50; j++) {
+                for (int i = 0; i < shape.numberOfCells(); i++) {
+                    underTest.decrement(i);
+                }
+            }
+        });
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(255 - THREADS * 50, underTest.get(i));
+        }
+        // saturate at zero
+        runThreads(id -> {
+            for (int j = 0; j < 50; j++) {
+                for (int i = 0; i < shape.numberOfCells(); i++) {
+                    underTest.decrement(i);
+                }
+            }
+        });
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(0, underTest.get(i));
+        }
+        assertEquals(0, underTest.cardinality());
+    }
+
+    @Test
+    public void concurrentBulkDecrementTest() throws InterruptedException {
+        StableShape shape = StableShape.builder(testShape).setMax(255).build();
+        underTest = new AtomicBufferManager(shape);
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            underTest.set(i);
+        }
+        int[] entries = new int[shape.numberOfCells()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = i;
+        }
+        runThreads(id -> {
+            for (int j = 0; j < 50; j++) {
+                underTest.decrement(entries, entries.length);
+            }
+        });
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(255 - THREADS * 50, underTest.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentFilterTest() throws InterruptedException {
+        // few decrements and a high reset value so no merged item can be removed.
+        StableShape shape = StableShape.builder(Shape.fromNP(1000, 1.0 / 100)).setMax(255).setP(2).build();
+        ConcurrentStableBloomFilter filter = new ConcurrentStableBloomFilter(shape);
+        int perThread = 250;
+        runThreads(id -> {
+            for (int i = 0; i < perThread; i++) {
+                filter.merge(new EnhancedDoubleHasher(id, i));
+            }
+        });
+        for (int id = 0; id < THREADS; id++) {
+            for (int i = 0; i < perThread; i++) {
+                Hasher hasher = new EnhancedDoubleHasher(id, i);
+                assertTrue(filter.contains(hasher), () -> "missing " + hasher);
+            }
+        }
+        assertTrue(filter.cardinality() > 0);
+        filter.clear();
+        assertEquals(0, filter.cardinality());
+    }
+}
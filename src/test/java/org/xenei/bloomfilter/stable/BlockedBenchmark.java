@@ -0,0 +1,68 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the merge and contains times and the false positive rates of a
+ * stable filter with and without cache line blocks.
+ */
+public class BlockedBenchmark {
+
+    private static final int CELLS = 100_000_000;
+    private static final int K = 7;
+    private static final int ITEMS = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int[] indices = new int[ITEMS * K];
+        int[] unseen = new int[ITEMS * K];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = random.nextInt(CELLS);
+            unseen[i] = random.nextInt(CELLS);
+        }
+        System.out.format("%8s %14s %14s %12s %12s%n", "blocked", "merge ns/op", "contains ns/op", "shape fps",
+                "measured fps");
+        for (boolean blocked : new boolean[] { false, true }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(K, CELLS)).setMax(3).setFps(0.01)
+                    .setBlocked(blocked).build();
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            // bring the filter to its stable point with new items. A cell set by an item
+            // is cleared after about m * Max / P later items.
+            long decay = (long) shape.numberOfCells() * shape.resetValue()
+                    / shape.decrementShape.getNumberOfHashFunctions();
+            int[] fill = new int[indices.length];
+            for (long items = 0; items < decay * 5; items += ITEMS) {
+                for (int i = 0; i < fill.length; i++) {
+                    fill[i] = random.nextInt(CELLS);
+                }
+                filter.mergeAll(fill);
+            }
+            long merge = Long.MAX_VALUE;
+            long contains = Long.MAX_VALUE;
+            int found = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < indices.length; i += K) {
+                    filter.merge(IndexProducer.fromIndexArray(Arrays.copyOfRange(indices, i, i + K)));
+                }
+                merge = Math.min(merge, System.nanoTime() - start);
+
+                found = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < unseen.length; i += K) {
+                    if (filter.contains(IndexProducer.fromIndexArray(Arrays.copyOfRange(unseen, i, i + K)))) {
+                        found++;
+                    }
+                }
+                contains = Math.min(contains, System.nanoTime() - start);
+            }
+            System.out.format("%8s %14.2f %14.2f %12.5f %12.5f%n", blocked, merge * 1.0 / ITEMS,
+                    contains * 1.0 / ITEMS, shape.fps, found * 1.0 / ITEMS);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Random;
+import java.util.function.Function;
+
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the speed and memory use of the BufferManager implementations for
+ * cell widths that are not a power of 2.
+ */
+public class BufferManagerBenchmark {
+
+    private static final int CELLS = 10_000_000;
+    private static final int OPERATIONS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        System.out.format("%5s %10s %14s %14s %14s%n", "bits", "manager", "bytes", "ns/op", "check");
+        for (int max : new int[] { 4, 16, 32, 64 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(7, CELLS)).setMax(max).build();
+            run(shape, "Simple", AbstractBufferManager.Simple::new, shape.numberOfCells());
+            run(shape, "Packed", AbstractBufferManager.Packed::new,
+                    (shape.numberOfCells() + shape.cellsPerByte() - 1) / shape.cellsPerByte());
+            run(shape, "Heap", AbstractWordBufferManager.Heap::new,
+                    AbstractWordBufferManager.numberOfWords(shape) * (long) Long.BYTES);
+            run(shape, "Compact", CompactBufferManager::new,
+                    CompactBufferManager.numberOfWords(shape) * (long) Long.BYTES);
+        }
+    }
+
+    private static void run(StableShape shape, String name, Function<BufferShape, BufferManager> constructor,
+            long bytes) {
+        BufferManager buffer = constructor.apply(shape);
+        Random random = new Random(1);
+        int[] entries = new int[OPERATIONS];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = random.nextInt(shape.numberOfCells());
+        }
+        long best = Long.MAX_VALUE;
+        long check = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            // a mix of one set, two decrements and one test per entry
+            for (int i = 0; i < entries.length; i += 4) {
+                buffer.set(entries[i]);
+                buffer.decrement(entries[i + 1]);
+                buffer.decrement(entries[i + 2]);
+                if (buffer.isSet(entries[i + 3])) {
+                    check++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format("%5s %10s %14s %14.2f %14s%n", shape.bitsPerCell(), name, bytes,
+                best * 1.0 / OPERATIONS, check);
+    }
+}
@@ -0,0 +1,103 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class CompactBufferManagerTest {
+
+    private CompactBufferManager underTest;
+    private Shape testShape = Shape.fromKM(3, 100);
+
+    @Test
+    public void lengthTest() {
+        // 3 bits * 100 cells = 300 bits
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new CompactBufferManager(shape);
+        assertEquals(5, underTest.buffer.length);
+        assertInstanceOf(CompactBufferManager.class, AbstractBufferManager.instance(shape));
+        // 7 bits * 100 cells = 700 bits
+        shape = StableShape.builder(testShape).setMax(100).build();
+        underTest = new CompactBufferManager(shape);
+        assertEquals(11, underTest.buffer.length);
+        assertInstanceOf(CompactBufferManager.class, AbstractBufferManager.instance(shape));
+    }
+
+    @Test
+    public void spanningCellTest() {
+        // 3 bit cells: cell 21 occupies bits 63 to 65
+        StableShape shape = StableShape.builder(testShape).setMax(7).build();
+        underTest = new CompactBufferManager(shape);
+        underTest.set(21);
+        assertEquals(1L << 63, underTest.buffer[0]);
+        assertEquals(3L, underTest.buffer[1]);
+        assertEquals(7, underTest.get(21));
+        assertEquals(0, underTest.get(20));
+        assertEquals(0, underTest.get(22));
+        underTest.decrement(21);
+        assertEquals(6, underTest.get(21));
+        assertEquals(0L, underTest.buffer[0]);
+        assertEquals(3L, underTest.buffer[1]);
+        underTest.set(20);
+        underTest.set(22);
+        assertEquals(7, underTest.get(20));
+        assertEquals(6, underTest.get(21));
+        assertEquals(7, underTest.get(22));
+    }
+
+    @Test
+    public void operationsTest() {
+        Random random = new Random(42);
+        for (int max : new int[] { 4, 5, 17, 33, 100, 255, 300, 4095, 20000, 65535 }) {
+            StableShape shape = StableShape.builder(testShape).setMax(max).build();
+            underTest = new CompactBufferManager(shape);
+            int[] expected = new int[shape.numberOfCells()];
+            for (int round = 0; round < 2000; round++) {
+                int entry = random.nextInt(expected.length);
+                switch (random.nextInt(3)) {
+                case 0:
+                    underTest.set(entry);
+                    expected[entry] = max;
+                    break;
+                case 1:
+                    underTest.decrement(entry);
+                    expected[entry] = Math.max(0, expected[entry] - 1);
+                    break;
+                default:
+                    int value = random.nextInt(max + 1);
+                    underTest.func(entry, value, (x, y) -> y);
+                    expected[entry] = value;
+                    break;
+                }
+            }
+            int count = 0;
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], underTest.get(i), () -> "max " + max);
+                assertEquals(expected[i] != 0, underTest.isSet(i));
+                count += expected[i] != 0 ? 1 : 0;
+            }
+            assertEquals(count, underTest.cardinality());
+        }
+    }
+
+    @Test
+    public void copyAndClearTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(5).build();
+        underTest = new CompactBufferManager(shape);
+        underTest.set(21);
+        CompactBufferManager copy = underTest.copy();
+        underTest.clear();
+        assertThat(underTest.buffer).containsOnly(0L);
+        assertEquals(0, underTest.cardinality());
+        assertFalse(underTest.isSet(21));
+        assertTrue(copy.isSet(21));
+        assertEquals(1, copy.cardinality());
+    }
+}
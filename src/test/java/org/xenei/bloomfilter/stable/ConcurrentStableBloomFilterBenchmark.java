@@ -0,0 +1,78 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Measures merge throughput as the number of threads grows for a stable filter
+ * behind a single lock, for the ConcurrentStableBloomFilter and for a
+ * ShardedStableBloomFilter with one shard per thread. The sharded case assumes
+ * the keys have already been partitioned so each thread only merges into its own shard.
+ */
+public class ConcurrentStableBloomFilterBenchmark {
+
+    private static final long RUN_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        StableShape shape = StableShape.builder(Shape.fromNP(1_000_000, 1.0 / 1000)).setMax(3).build();
+        System.out.println("Shape: " + shape);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.format("%8s %20s %20s %20s%n", "threads", "locked ops/s", "concurrent ops/s",
+                "sharded ops/s");
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            StableBloomFilter locked = new StableBloomFilter(shape);
+            double lockedRate = run(threads, t -> h -> {
+                synchronized (locked) {
+                    locked.merge(h);
+                }
+            });
+            ConcurrentStableBloomFilter concurrent = new ConcurrentStableBloomFilter(shape);
+            double concurrentRate = run(threads, t -> concurrent::merge);
+            ShardedStableBloomFilter sharded = new ShardedStableBloomFilter(shape, threads);
+            double shardedRate = run(threads, t -> sharded.getShard(t)::merge);
+            System.out.format("%8s %20.0f %20.0f %20.0f%n", threads, lockedRate, concurrentRate, shardedRate);
+        }
+    }
+
+    private static double run(int threads, IntFunction<Consumer<Hasher>> mergeFactory)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder count = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            final Consumer<Hasher> merge = mergeFactory.apply(t);
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long i = 0;
+                while (running.get()) {
+                    merge.accept(new EnhancedDoubleHasher(seed, i++));
+                }
+                count.add(i);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return count.sum() * 1000.0 / RUN_MILLIS;
+    }
+}
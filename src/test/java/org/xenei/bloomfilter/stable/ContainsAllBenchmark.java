@@ -0,0 +1,66 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares testing keys one at a time with containsAll, which probes the cells
+ * of groups of keys together, sequentially and with fork/join tasks in the common pool.
+ */
+public class ContainsAllBenchmark {
+
+    private static final int CELLS = 100_000_000;
+    private static final int K = 7;
+    private static final int ITEMS = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        StableShape shape = StableShape.builder(Shape.fromKM(K, CELLS)).setMax(3).setFps(0.01).build();
+        StableBloomFilter filter = new StableBloomFilter(shape);
+        // bring the filter to its stable point so that absent keys are not rejected by the first probe.
+        Random random = new Random(1);
+        int[] fill = new int[100_000 * K];
+        while (filter.cardinality() < shape.expectedCardinality * 0.95) {
+            for (int i = 0; i < fill.length; i++) {
+                fill[i] = random.nextInt(CELLS);
+            }
+            filter.mergeAll(fill);
+        }
+        Hasher[] hashers = new Hasher[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            hashers[i] = new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+            if ((i & 1) == 0) {
+                filter.merge(hashers[i].indices(filter.getShape()));
+            }
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long single = Long.MAX_VALUE;
+        long all = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        int found = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (Hasher hasher : hashers) {
+                found += filter.contains(hasher.indices(filter.getShape())) ? 1 : 0;
+            }
+            single = Math.min(single, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            found += filter.containsAll(hashers).length;
+            all = Math.min(all, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            found += filter.containsAll(hashers, pool).length;
+            parallel = Math.min(parallel, System.nanoTime() - start);
+        }
+        System.out.println("Shape: " + shape + " (" + found + ")");
+        System.out.format("%20s %14s%n", "method", "ns/key");
+        System.out.format("%20s %14.2f%n", "contains", single * 1.0 / ITEMS);
+        System.out.format("%20s %14.2f%n", "containsAll", all * 1.0 / ITEMS);
+        System.out.format("%20s %14.2f%n", "containsAll(pool)", parallel * 1.0 / ITEMS);
+    }
+}
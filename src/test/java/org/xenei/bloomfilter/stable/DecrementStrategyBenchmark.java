@@ -0,0 +1,44 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the merge speed of a large stable Bloom filter for each DecrementStrategy.
+ */
+public class DecrementStrategyBenchmark {
+
+    private static final int CELLS = 100_000_000;
+    private static final int MERGES = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        IndexProducer[] items = new IndexProducer[MERGES];
+        for (int i = 0; i < items.length; i++) {
+            int[] indices = new int[7];
+            for (int j = 0; j < indices.length; j++) {
+                indices[j] = random.nextInt(CELLS);
+            }
+            items[i] = IndexProducer.fromIndexArray(indices);
+        }
+        System.out.format("%12s %6s %14s %10s%n", "strategy", "P", "ns/merge", "cardinality");
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            StableShape shape = StableShape.builder(Shape.fromKM(7, CELLS)).setMax(3).setFps(0.01)
+                    .setDecrementStrategy(strategy).build();
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (IndexProducer item : items) {
+                    filter.merge(item);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format("%12s %6s %14.2f %10s%n", strategy, shape.decrementShape.getNumberOfHashFunctions(),
+                    best * 1.0 / MERGES, filter.cardinality());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class DedupProcessorTest {
+
+    private StableShape shape = StableShape.builder(Shape.fromNP(1000, 1.0 / 1000)).setMax(255).setP(1).build();
+    private Function<Integer, Hasher> keyFunction = i -> new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+
+    private DedupProcessor<Integer> createProcessor(int batchSize) {
+        return new DedupProcessor<>(new Deduplicator<>(new StableBloomFilter(shape), keyFunction, batchSize));
+    }
+
+    /**
+     * A publisher that emits the items of a list on the requesting thread.
+     */
+    private static class ListPublisher implements Flow.Publisher<Integer> {
+        private final List<Integer> items;
+        private final Throwable error;
+        long totalRequested;
+        boolean cancelled;
+
+        ListPublisher(List<Integer> items, Throwable error) {
+            this.items = items;
+            this.error = error;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private int pos;
+                private long demand;
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    totalRequested += n;
+                    demand += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && pos < items.size() && !cancelled) {
+                        demand--;
+                        subscriber.onNext(items.get(pos++));
+                    }
+                    if (pos == items.size() && !cancelled) {
+                        pos++;
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * A subscriber that records what it receives.
+     */
+    private static class Recorder implements Flow.Subscriber<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean complete;
+        private final long initial;
+
+        Recorder(long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initial > 0) {
+                subscription.request(initial);
+            }
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            finished.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+            finished.countDown();
+        }
+    }
+
+    private List<Integer> withDuplicates() {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            result.add(i);
+            result.add(i / 2);
+        }
+        return result;
+    }
+
+    @Test
+    public void dedupTest() {
+        DedupProcessor<Integer> underTest = createProcessor(8);
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        underTest.subscribe(recorder);
+        new ListPublisher(withDuplicates(), null).subscribe(underTest);
+        assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), recorder.items);
+        assertTrue(recorder.complete);
+        assertNull(recorder.error);
+    }
+
+    @Test
+    public void backpressureTest() {
+        DedupProcessor<Integer> underTest = createProcessor(4);
+        Recorder recorder = new Recorder(0);
+        ListPublisher publisher = new ListPublisher(withDuplicates(), null);
+        publisher.subscribe(underTest);
+        underTest.subscribe(recorder);
+        assertEquals(0, publisher.totalRequested);
+
+        recorder.subscription.request(3);
+        assertEquals(Arrays.asList(0, 1, 2), recorder.items);
+        // 0,0,1,0,2,1 are read to find 3 unique items, in batches of at most 4.
+        assertTrue(publisher.totalRequested <= 8, "requested " + publisher.totalRequested);
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertEquals(100, recorder.items.size());
+        assertTrue(recorder.complete);
+
+        recorder.subscription.cancel();
+    }
+
+    @Test
+    public void cancelTest() {
+        DedupProcessor<Integer> underTest = createProcessor(4);
+        Recorder recorder = new Recorder(2);
+        ListPublisher publisher = new ListPublisher(withDuplicates(), null);
+        underTest.subscribe(recorder);
+        publisher.subscribe(underTest);
+        recorder.subscription.cancel();
+        assertTrue(publisher.cancelled);
+        recorder.subscription.request(10);
+        assertEquals(Arrays.asList(0, 1), recorder.items);
+        assertFalse(recorder.complete);
+    }
+
+    @Test
+    public void errorTest() {
+        DedupProcessor<Integer> underTest = createProcessor(4);
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        underTest.subscribe(recorder);
+        IllegalStateException expected = new IllegalStateException("test");
+        new ListPublisher(Arrays.asList(1, 2, 1), expected).subscribe(underTest);
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+        assertEquals(expected, recorder.error);
+        assertFalse(recorder.complete);
+
+        // invalid requests are reported as errors
+        underTest = createProcessor(4);
+        recorder = new Recorder(0);
+        underTest.subscribe(recorder);
+        recorder.subscription.request(0);
+        assertInstanceOf(IllegalArgumentException.class, recorder.error);
+    }
+
+    @Test
+    public void keyFunctionThrowsTest() {
+        IllegalStateException expected = new IllegalStateException("test");
+        DedupProcessor<Integer> underTest = new DedupProcessor<>(
+                new Deduplicator<Integer>(new StableBloomFilter(shape), i -> {
+                    if (i == 3) {
+                        throw expected;
+                    }
+                    return keyFunction.apply(i);
+                }, 4));
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        underTest.subscribe(recorder);
+        ListPublisher publisher = new ListPublisher(Arrays.asList(1, 2, 1, 3, 4, 5), null);
+        publisher.subscribe(underTest);
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+        assertEquals(expected, recorder.error);
+        assertTrue(publisher.cancelled);
+        assertFalse(recorder.complete);
+    }
+
+    @Test
+    public void onNextThrowsTest() {
+        IllegalStateException expected = new IllegalStateException("test");
+        DedupProcessor<Integer> underTest = createProcessor(4);
+        Recorder recorder = new Recorder(Long.MAX_VALUE) {
+            @Override
+            public void onNext(Integer item) {
+                super.onNext(item);
+                if (item == 2) {
+                    throw expected;
+                }
+            }
+        };
+        underTest.subscribe(recorder);
+        ListPublisher publisher = new ListPublisher(Arrays.asList(1, 2, 3, 4), null);
+        publisher.subscribe(underTest);
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+        assertEquals(expected, recorder.error);
+        assertTrue(publisher.cancelled);
+        // the stream is terminated, not stalled, so later signals are ignored.
+        recorder.subscription.request(10);
+        underTest.onNext(5);
+        underTest.onComplete();
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+        assertFalse(recorder.complete);
+    }
+
+    @Test
+    public void singleSubscriberTest() {
+        DedupProcessor<Integer> underTest = createProcessor(4);
+        underTest.subscribe(new Recorder(1));
+        Recorder second = new Recorder(1);
+        underTest.subscribe(second);
+        assertInstanceOf(IllegalStateException.class, second.error);
+    }
+
+    @Test
+    public void asyncPublisherTest() throws InterruptedException {
+        DedupProcessor<Integer> underTest = createProcessor(16);
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        underTest.subscribe(recorder);
+        try (SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(underTest);
+            for (Integer i : withDuplicates()) {
+                publisher.submit(i);
+            }
+        }
+        assertTrue(recorder.finished.await(10, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), recorder.items);
+    }
+}
@@ -0,0 +1,117 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class DeduplicatorTest {
+
+    private StableShape shape = StableShape.builder(Shape.fromNP(1000, 1.0 / 1000)).setMax(255).setP(1).build();
+    private Function<Integer, Hasher> keyFunction = i -> new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+
+    private List<Integer> withDuplicates() {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            result.add(i);
+            if (i % 3 == 0) {
+                result.add(i / 2);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void iteratorTest() {
+        // a batch size that does not divide the input
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape), keyFunction, 7);
+        List<Integer> result = new ArrayList<>();
+        underTest.filter(withDuplicates().iterator()).forEachRemaining(result::add);
+        assertEquals(IntStream.range(0, 300).boxed().collect(Collectors.toList()), result);
+        // everything is now a duplicate
+        assertFalse(underTest.filter(withDuplicates().iterator()).hasNext());
+    }
+
+    @Test
+    public void matchesIsDuplicateTest() {
+        Deduplicator<Integer> expected = new Deduplicator<>(new StableBloomFilter(shape), keyFunction);
+        List<Integer> unique = new ArrayList<>();
+        for (Integer i : withDuplicates()) {
+            if (!expected.isDuplicate(i)) {
+                unique.add(i);
+            }
+        }
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape), keyFunction, 16);
+        assertEquals(unique, underTest.filter(withDuplicates().stream()).collect(Collectors.toList()));
+        assertEquals(expected.getFilter().cardinality(), underTest.getFilter().cardinality());
+    }
+
+    @Test
+    public void streamCloseTest() {
+        AtomicBoolean closed = new AtomicBoolean();
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape), keyFunction);
+        try (Stream<Integer> stream = underTest.filter(Stream.of(1, 2, 1).onClose(() -> closed.set(true)))) {
+            assertEquals(Arrays.asList(1, 2), stream.collect(Collectors.toList()));
+        }
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void iteratorContractTest() {
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape), keyFunction);
+        Iterator<Integer> iter = underTest.filter(Arrays.asList(5, 5).iterator());
+        assertTrue(iter.hasNext());
+        assertTrue(iter.hasNext());
+        assertEquals(5, iter.next());
+        assertFalse(iter.hasNext());
+        assertThrows(NoSuchElementException.class, iter::next);
+    }
+
+    @Test
+    public void keyFunctionThrowsTest() {
+        IllegalStateException expected = new IllegalStateException("test");
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape), i -> {
+            if (i == 3) {
+                throw expected;
+            }
+            return keyFunction.apply(i);
+        }, 8);
+        Iterator<Integer> iter = underTest.filter(Arrays.asList(1, 2, 1, 3, 4).iterator());
+        assertSame(expected, assertThrows(IllegalStateException.class, iter::hasNext));
+        // the items read before the failure are still tested and returned.
+        List<Integer> result = new ArrayList<>();
+        iter.forEachRemaining(result::add);
+        assertEquals(Arrays.asList(1, 2, 4), result);
+    }
+
+    @Test
+    public void badHasherTest() {
+        Deduplicator<Integer> underTest = new Deduplicator<>(new StableBloomFilter(shape),
+                i -> new EnhancedDoubleHasher(i, 1) {
+                    @Override
+                    public org.apache.commons.collections4.bloomfilter.IndexProducer indices(Shape s) {
+                        return super.indices(Shape.fromKM(s.getNumberOfHashFunctions() + 1, s.getNumberOfBits()));
+                    }
+                });
+        assertThrows(IllegalArgumentException.class, () -> underTest.filter(Arrays.asList(1).iterator()).hasNext());
+        assertThrows(IllegalArgumentException.class,
+                () -> new Deduplicator<>(new StableBloomFilter(shape), keyFunction, 0));
+    }
+}
@@ -0,0 +1,132 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class DirectBufferManagerTest {
+
+    private AbstractWordBufferManager.Direct underTest;
+    private Shape testShape = Shape.fromNP(5, 1.0 / 5);
+
+    @Test
+    public void setGetDecrementTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new AbstractWordBufferManager.Direct(shape);
+        underTest.set(0);
+        underTest.set(16);
+        assertEquals(4, underTest.get(0));
+        assertEquals(0, underTest.get(1));
+        assertEquals(4, underTest.get(16));
+        underTest.decrement(16);
+        assertEquals(3, underTest.get(16));
+        for (int i = 0; i < 4; i++) {
+            underTest.decrement(0);
+        }
+        assertFalse(underTest.isSet(0));
+        underTest.decrement(0);
+        assertEquals(0, underTest.get(0));
+        assertTrue(underTest.isSet(16));
+    }
+
+    @Test
+    public void clearTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new AbstractWordBufferManager.Direct(shape);
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            underTest.set(i);
+        }
+        underTest.clear();
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertFalse(underTest.isSet(i));
+        }
+    }
+
+    @Test
+    public void copyTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new AbstractWordBufferManager.Direct(shape);
+        underTest.set(3);
+        underTest.set(16);
+        AbstractWordBufferManager.Direct copy = underTest.copy();
+        // copy of a copy must also carry the values.
+        copy = copy.copy();
+        assertEquals(4, copy.get(3));
+        assertEquals(4, copy.get(16));
+        copy.set(4);
+        assertFalse(underTest.isSet(4));
+    }
+
+    @Test
+    public void closeTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(4).build();
+        underTest = new AbstractWordBufferManager.Direct(shape);
+        underTest.close();
+        assertThrows(IllegalStateException.class, () -> underTest.set(1));
+        assertThrows(IllegalStateException.class, () -> underTest.isSet(1));
+    }
+
+    @Test
+    public void segmentTest() {
+        // 3 bit cells in 4 bit lanes, 8 words of 16 cells per segment, the last segment is partial.
+        StableShape shape = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(4).build();
+        assertTrue(shape.numberOfCells() % 128 != 0);
+        underTest = new AbstractWordBufferManager.Direct(shape, 3);
+        for (int i = 0; i < shape.numberOfCells(); i += 7) {
+            underTest.set(i);
+        }
+        AbstractWordBufferManager.Direct copy = underTest.copy();
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(i % 7 == 0 ? 4 : 0, underTest.get(i), "cell " + i);
+            assertEquals(i % 7 == 0 ? 4 : 0, copy.get(i), "cell " + i);
+        }
+        assertEquals((shape.numberOfCells() + 6) / 7, copy.cardinality());
+        underTest.clear();
+        assertEquals(0, underTest.cardinality());
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertFalse(underTest.isSet(i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new AbstractWordBufferManager.Direct(shape, 2));
+        assertThrows(IllegalArgumentException.class, () -> new AbstractWordBufferManager.Direct(shape, 28));
+    }
+
+    @Test
+    public void shapeMismatchTest() {
+        StableShape shape = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(3).build();
+        StableShape wider = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(15).build();
+        StableShape larger = StableShape.builder(Shape.fromNP(200, 1.0 / 100)).setMax(3).build();
+        assertThrows(IllegalArgumentException.class,
+                () -> new StableBloomFilter(shape, new AbstractWordBufferManager.Direct(wider)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StableBloomFilter(shape, new AbstractWordBufferManager.Direct(larger)));
+    }
+
+    @Test
+    public void blockedInstanceTest() {
+        for (int max : new int[] { 1, 3, 7, 15, 255, 0x7FFF }) {
+            StableShape shape = StableShape.builder(Shape.fromNP(1000, 1.0 / 100)).setMax(max).setBlocked(true)
+                    .build();
+            // a block is a whole number of words, and a 64 byte line when the words are aligned.
+            assertInstanceOf(AbstractWordBufferManager.Heap.class, AbstractBufferManager.instance(shape));
+            int laneBits = 1 << AbstractWordBufferManager.bitShift(shape);
+            assertEquals(StableShape.BLOCK_BYTES * Byte.SIZE, shape.cellsPerBlock * laneBits, "max " + max);
+        }
+        StableShape shape = StableShape.builder(Shape.fromNP(1000, 1.0 / 100)).setMax(7).build();
+        assertInstanceOf(CompactBufferManager.class, AbstractBufferManager.instance(shape));
+    }
+
+    @Test
+    public void filterTest() {
+        StableShape shape = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(3).build();
+        StableBloomFilter filter = new StableBloomFilter(shape, new AbstractWordBufferManager.Direct(shape));
+        EnhancedDoubleHasher hasher = new EnhancedDoubleHasher(1, 2);
+        filter.merge(hasher);
+        assertTrue(filter.contains(hasher));
+    }
+}
@@ -0,0 +1,97 @@
+package org.xenei.bloomfilter.stable;
+
+import org.apache.commons.collections4.bloomfilter.BitMap;
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the FastPseudoRandomInt with the earlier version that kept its state in
+ * volatile fields and reduced each value with a 64 bit modulus, generating indices
+ * one at a time, in bulk and through the decrement of a stable filter merge.
+ */
+public class FastPseudoRandomIntBenchmark {
+
+    private static final int CELLS = 10_000_000;
+    private static final int CALLS = 100_000_000;
+    private static final int ITEMS = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * The earlier generator, which kept its state in volatile fields.
+     */
+    private static class VolatileGenerator extends FastPseudoRandomInt {
+        private volatile long index;
+        private volatile long increment;
+        private volatile long count;
+
+        VolatileGenerator(long index, long increment) {
+            super(index, increment);
+            this.index = index;
+            this.increment = increment;
+            this.count = 1;
+        }
+
+        @Override
+        public int nextInt(int limit) {
+            int idx = BitMap.mod(index, limit);
+            index -= increment;
+            increment -= count++;
+            return idx;
+        }
+
+        @Override
+        public void fill(int[] out, int count, int limit) {
+            for (int i = 0; i < count; i++) {
+                out[i] = nextInt(limit);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        StableShape shape = StableShape.builder(Shape.fromKM(7, CELLS)).setMax(3).setFps(0.01).build();
+        int[][] items = new int[ITEMS][];
+        FastPseudoRandomInt source = new FastPseudoRandomInt(7, 11);
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = source.indices(shape.getShape()).asIndexArray();
+        }
+        System.out.format("%10s %14s %14s %14s%n", "generator", "nextInt ns", "fill ns", "merge ns/op");
+        for (int round = 0; round < 2; round++) {
+            report("volatile", new VolatileGenerator(1, 2), new VolatileGenerator(1, 2), shape, items);
+            report("plain", new FastPseudoRandomInt(1, 2), new FastPseudoRandomInt(1, 2), shape, items);
+        }
+    }
+
+    private static void report(String name, FastPseudoRandomInt generator, FastPseudoRandomInt decrements,
+            StableShape shape, int[][] items) {
+        long next = Long.MAX_VALUE;
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                sum += generator.nextInt(CELLS);
+            }
+            next = Math.min(next, System.nanoTime() - start);
+        }
+        int[] out = new int[shape.decrementShape.getNumberOfHashFunctions()];
+        long fill = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i += out.length) {
+                generator.fill(out, out.length, CELLS);
+                sum += out[0];
+            }
+            fill = Math.min(fill, System.nanoTime() - start);
+        }
+        StableBloomFilter filter = new StableBloomFilter(shape, AbstractBufferManager.instance(shape), decrements);
+        long merge = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int[] item : items) {
+                filter.merge(IndexProducer.fromIndexArray(item));
+            }
+            merge = Math.min(merge, System.nanoTime() - start);
+        }
+        System.out.format("%10s %14.2f %14.2f %14.2f (%d)%n", name, next * 1.0 / CALLS, fill * 1.0 / CALLS,
+                merge * 1.0 / ITEMS, sum & 1);
+    }
+}
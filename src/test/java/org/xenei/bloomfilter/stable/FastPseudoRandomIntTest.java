@@ -0,0 +1,75 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class FastPseudoRandomIntTest {
+
+    private static int[] sequence(FastPseudoRandomInt generator, int limit, int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = generator.nextInt(limit);
+            assertTrue(result[i] >= 0 && result[i] < limit, () -> "out of range");
+        }
+        return result;
+    }
+
+    @Test
+    public void repeatableTest() {
+        assertArrayEquals(sequence(new FastPseudoRandomInt(1, 2), 1000, 100),
+                sequence(new FastPseudoRandomInt(1, 2), 1000, 100));
+    }
+
+    @Test
+    public void splitTest() {
+        FastPseudoRandomInt parent = new FastPseudoRandomInt(1, 2);
+        FastPseudoRandomInt first = parent.split();
+        FastPseudoRandomInt second = parent.split();
+        int[] parentSequence = sequence(parent, Integer.MAX_VALUE, 100);
+        int[] firstSequence = sequence(first, Integer.MAX_VALUE, 100);
+        int[] secondSequence = sequence(second, Integer.MAX_VALUE, 100);
+        assertFalse(Arrays.equals(parentSequence, firstSequence));
+        assertFalse(Arrays.equals(parentSequence, secondSequence));
+        assertFalse(Arrays.equals(firstSequence, secondSequence));
+
+        // splitting is repeatable
+        FastPseudoRandomInt again = new FastPseudoRandomInt(1, 2);
+        assertArrayEquals(firstSequence, sequence(again.split(), Integer.MAX_VALUE, 100));
+        assertArrayEquals(secondSequence, sequence(again.split(), Integer.MAX_VALUE, 100));
+    }
+
+    @Test
+    public void fillTest() {
+        for (int limit : new int[] { 1, 7, 512, 1000, Integer.MAX_VALUE }) {
+            int[] expected = sequence(new FastPseudoRandomInt(3, 4), limit, 50);
+            FastPseudoRandomInt generator = new FastPseudoRandomInt(3, 4);
+            int[] first = new int[25];
+            int[] second = new int[30];
+            generator.fill(first, 20, limit);
+            generator.fill(second, 30, limit);
+            assertArrayEquals(Arrays.copyOf(expected, 20), Arrays.copyOf(first, 20));
+            assertArrayEquals(Arrays.copyOfRange(expected, 20, 50), second);
+            // values after count are not changed
+            assertArrayEquals(new int[5], Arrays.copyOfRange(first, 20, 25));
+        }
+    }
+
+    @Test
+    public void uniformTest() {
+        FastPseudoRandomInt generator = new FastPseudoRandomInt(5, 6);
+        int[] buckets = new int[10];
+        int[] values = new int[100_000];
+        generator.fill(values, values.length, buckets.length);
+        for (int value : values) {
+            buckets[value]++;
+        }
+        for (int bucket : buckets) {
+            assertTrue(Math.abs(bucket - 10_000) < 500, () -> Arrays.toString(buckets));
+        }
+    }
+}
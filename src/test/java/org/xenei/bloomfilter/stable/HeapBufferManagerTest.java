@@ -0,0 +1,250 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class HeapBufferManagerTest {
+
+    private AbstractWordBufferManager.Heap underTest;
+    private int evenReset = 2; // 2 bits
+    private int oddReset = 4; // 3 bits stored in 4
+    private Shape testShape = Shape.fromNP(5, 1.0 / 5);
+
+    @Test
+    public void lengthTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(evenReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        assertEquals(1, underTest.buffer.length);
+
+        BufferManager mgr = AbstractBufferManager.instance(shape);
+        assertInstanceOf(AbstractWordBufferManager.Heap.class, mgr);
+        assertEquals(1, ((AbstractWordBufferManager.Heap) mgr).buffer.length);
+
+        shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        assertEquals(2, underTest.buffer.length);
+
+        // 3 bit cells are packed without waste
+        assertInstanceOf(CompactBufferManager.class, AbstractBufferManager.instance(shape));
+
+        shape = StableShape.builder(Shape.fromKM(3, 64)).setMax(1).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        assertEquals(1, underTest.buffer.length);
+        shape = StableShape.builder(Shape.fromKM(3, 65)).setMax(1).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        assertEquals(2, underTest.buffer.length);
+    }
+
+    @Test
+    public void clearTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.buffer[0] = 0xCCL;
+        underTest.buffer[1] = -1L;
+        underTest.clear();
+        assertThat(underTest.buffer).containsOnly(0L);
+    }
+
+    @Test
+    public void decrementEvenTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(evenReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.buffer[0] = 0x5FFL;
+        underTest.decrement(1);
+        assertEquals(0x5FBL, underTest.buffer[0]);
+        underTest.decrement(1);
+        assertEquals(0x5F7L, underTest.buffer[0]);
+        underTest.decrement(1);
+        assertEquals(0x5F3L, underTest.buffer[0]);
+
+        // show decrement at 0 does not do anything.
+        underTest.decrement(1);
+        assertEquals(0x5F3L, underTest.buffer[0]);
+
+        underTest.decrement(0);
+        assertEquals(0x5F2L, underTest.buffer[0]);
+        underTest.decrement(4);
+        assertEquals(0x4F2L, underTest.buffer[0]);
+        underTest.decrement(4);
+        assertEquals(0x4F2L, underTest.buffer[0]);
+        underTest.decrement(5);
+        assertEquals(0x0F2L, underTest.buffer[0]);
+    }
+
+    @Test
+    public void decrementOddTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.buffer[0] = 0x77L;
+        for (int i = 6; i >= 0; i--) {
+            underTest.decrement(1);
+            assertEquals(0x07L | (i << 4), underTest.buffer[0]);
+        }
+        // show decrement at 0 does not do anything.
+        underTest.decrement(1);
+        assertEquals(0x07L, underTest.buffer[0]);
+    }
+
+    @Test
+    public void funcTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.func(1, 1, (x, y) -> x + y);
+        assertEquals(0x10L, underTest.buffer[0]);
+        underTest.func(1, 1, (x, y) -> x + y);
+        assertEquals(0x20L, underTest.buffer[0]);
+        // values are truncated to the cell width
+        underTest.func(1, 0xFF, (x, y) -> y);
+        assertEquals(0x70L, underTest.buffer[0]);
+    }
+
+    @Test
+    public void getTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.buffer[0] = 0x534L;
+        underTest.buffer[1] = 0x6L;
+        assertEquals(4, underTest.get(0));
+        assertEquals(3, underTest.get(1));
+        assertEquals(5, underTest.get(2));
+        assertEquals(0, underTest.get(15));
+        assertEquals(6, underTest.get(16));
+    }
+
+    @Test
+    public void isSetTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.buffer[0] = 0x505L;
+        underTest.buffer[1] = 0x1L;
+        assertTrue(underTest.isSet(0));
+        assertFalse(underTest.isSet(1));
+        assertTrue(underTest.isSet(2));
+        assertFalse(underTest.isSet(3));
+        assertTrue(underTest.isSet(16));
+    }
+
+    @Test
+    public void setTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.set(0);
+        underTest.set(1);
+        underTest.set(2);
+        underTest.set(16);
+        assertEquals(0x444L, underTest.buffer[0]);
+        assertEquals(0x4L, underTest.buffer[1]);
+    }
+
+    @Test
+    public void copyTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(oddReset).build();
+        underTest = new AbstractWordBufferManager.Heap(shape);
+        underTest.set(3);
+        AbstractWordBufferManager.Heap copy = underTest.copy();
+        assertThat(copy.buffer).containsExactly(underTest.buffer);
+        copy.set(4);
+        assertFalse(underTest.isSet(4));
+    }
+
+    @Test
+    public void bulkDecrementTest() {
+        Random random = new Random(42);
+        for (int max : new int[] { 1, 3, 4, 15, 255, 300, 65535 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 200)).setMax(max).build();
+            underTest = new AbstractWordBufferManager.Heap(shape);
+            AbstractWordBufferManager.Heap expected = new AbstractWordBufferManager.Heap(shape);
+            for (int i = 0; i < shape.numberOfCells(); i += 3) {
+                underTest.set(i);
+                expected.set(i);
+            }
+            int[] entries = new int[50];
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < entries.length; i++) {
+                    // runs of adjacent cells with duplicates
+                    entries[i] = i > 0 && random.nextBoolean() ? Math.min(entries[i - 1] + random.nextInt(3), 199)
+                            : random.nextInt(shape.numberOfCells());
+                    expected.decrement(entries[i]);
+                }
+                underTest.decrement(entries, entries.length);
+                assertThat(underTest.buffer).as("max %s round %s", max, round).containsExactly(expected.buffer);
+            }
+        }
+    }
+
+    @Test
+    public void decrementRangeTest() {
+        Random random = new Random(42);
+        for (int max : new int[] { 1, 3, 4, 15, 255, 300, 65535 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 200)).setMax(max).build();
+            underTest = new AbstractWordBufferManager.Heap(shape);
+            AbstractWordBufferManager.Heap expected = new AbstractWordBufferManager.Heap(shape);
+            for (int i = 0; i < shape.numberOfCells(); i += 2) {
+                underTest.set(i);
+                expected.set(i);
+            }
+            for (int round = 0; round < 50; round++) {
+                int from = random.nextInt(shape.numberOfCells());
+                int count = random.nextInt(shape.numberOfCells() - from + 1);
+                for (int i = from; i < from + count; i++) {
+                    expected.decrement(i);
+                }
+                underTest.decrementRange(from, count);
+                assertThat(underTest.buffer).as("max %s round %s", max, round).containsExactly(expected.buffer);
+                assertEquals(expected.cardinality(), underTest.cardinality());
+            }
+        }
+    }
+
+    @Test
+    public void cardinalityTest() {
+        Random random = new Random(42);
+        for (int max : new int[] { 1, 3, 4, 15, 255, 300, 65535 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 200)).setMax(max).build();
+            underTest = new AbstractWordBufferManager.Heap(shape);
+            int[] entries = new int[20];
+            for (int round = 0; round < 200; round++) {
+                underTest.set(random.nextInt(shape.numberOfCells()));
+                underTest.decrement(random.nextInt(shape.numberOfCells()));
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = random.nextInt(shape.numberOfCells());
+                }
+                underTest.decrement(entries, entries.length);
+                underTest.func(random.nextInt(shape.numberOfCells()), random.nextInt(2), (x, y) -> y);
+                assertEquals(underTest.countSetCells(), underTest.cardinality(), () -> "max " + max);
+            }
+            assertEquals(underTest.cardinality(), underTest.copy().cardinality());
+            underTest.clear();
+            assertEquals(0, underTest.cardinality());
+        }
+    }
+
+    @Test
+    public void wideCellTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(1000).build();
+        BufferManager mgr = AbstractBufferManager.instance(shape);
+        assertInstanceOf(CompactBufferManager.class, mgr);
+
+        shape = StableShape.builder(testShape).setD(16).build();
+        mgr = AbstractBufferManager.instance(shape);
+        assertInstanceOf(AbstractWordBufferManager.Heap.class, mgr);
+        underTest = (AbstractWordBufferManager.Heap) mgr;
+        // 4 cells per word
+        assertEquals(5, underTest.buffer.length);
+        underTest.set(1);
+        underTest.set(4);
+        assertEquals(0xFFFF0000L, underTest.buffer[0]);
+        assertEquals(0xFFFFL, underTest.buffer[1]);
+        underTest.decrement(1);
+        assertEquals(0xFFFE, underTest.get(1));
+        assertEquals(0xFFFF, underTest.get(4));
+    }
+}
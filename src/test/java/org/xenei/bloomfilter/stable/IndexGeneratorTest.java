@@ -0,0 +1,118 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class IndexGeneratorTest {
+
+    /**
+     * Calculates the chi-square statistic of the values against a uniform distribution.
+     * @param values the values, each in the range [0,buckets).
+     * @param buckets the number of buckets.
+     * @return the chi-square statistic, with {@code buckets - 1} degrees of freedom.
+     */
+    static double chiSquare(int[] values, int buckets) {
+        long[] observed = new long[buckets];
+        for (int value : values) {
+            observed[value]++;
+        }
+        double expected = (double) values.length / buckets;
+        double result = 0;
+        for (long count : observed) {
+            double diff = count - expected;
+            result += diff * diff / expected;
+        }
+        return result;
+    }
+
+    private static int[] sequence(IndexGenerator generator, int limit, int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = generator.nextInt(limit);
+            assertTrue(result[i] >= 0 && result[i] < limit, () -> "out of range");
+        }
+        return result;
+    }
+
+    @Test
+    public void fillTest() {
+        for (RandomEngine engine : RandomEngine.values()) {
+            for (int limit : new int[] { 1, 7, 512, 1000, Integer.MAX_VALUE }) {
+                int[] expected = sequence(engine.create(3), limit, 50);
+                IndexGenerator generator = engine.create(3);
+                int[] first = new int[20];
+                int[] second = new int[35];
+                generator.fill(first, first.length, limit);
+                generator.fill(second, 30, limit);
+                assertArrayEquals(Arrays.copyOf(expected, 20), first);
+                assertArrayEquals(Arrays.copyOfRange(expected, 20, 50), Arrays.copyOf(second, 30));
+                assertArrayEquals(new int[5], Arrays.copyOfRange(second, 30, 35));
+            }
+        }
+    }
+
+    @Test
+    public void nextLongTest() {
+        for (RandomEngine engine : RandomEngine.values()) {
+            for (long limit : new long[] { 1, 7, 3_000_000_000L, Long.MAX_VALUE }) {
+                IndexGenerator generator = engine.create(3);
+                for (int i = 0; i < 1000; i++) {
+                    long value = generator.nextLong(limit);
+                    assertTrue(value >= 0 && value < limit, () -> engine + " out of range");
+                }
+            }
+        }
+        // the reduction is the high 64 bits of the unsigned product.
+        BigInteger two64 = BigInteger.ONE.shiftLeft(64);
+        for (long value : new long[] { 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 0x9E3779B97F4A7C15L }) {
+            for (long limit : new long[] { 1, 7, 3_000_000_000L, Long.MAX_VALUE }) {
+                BigInteger unsigned = BigInteger.valueOf(value).mod(two64);
+                long expected = unsigned.multiply(BigInteger.valueOf(limit)).shiftRight(64).longValueExact();
+                assertEquals(expected, IndexGenerator.reduce(value, limit), value + " " + limit);
+            }
+        }
+    }
+
+    @Test
+    public void splitTest() {
+        for (RandomEngine engine : RandomEngine.values()) {
+            IndexGenerator parent = engine.create(1);
+            IndexGenerator first = parent.split();
+            IndexGenerator second = parent.split();
+            assertEquals(parent.getClass(), first.getClass());
+            int[] parentSequence = sequence(parent, Integer.MAX_VALUE, 100);
+            int[] firstSequence = sequence(first, Integer.MAX_VALUE, 100);
+            int[] secondSequence = sequence(second, Integer.MAX_VALUE, 100);
+            assertFalse(Arrays.equals(parentSequence, firstSequence));
+            assertFalse(Arrays.equals(parentSequence, secondSequence));
+            assertFalse(Arrays.equals(firstSequence, secondSequence));
+        }
+    }
+
+    @Test
+    public void uniformTest() {
+        for (RandomEngine engine : RandomEngine.values()) {
+            // the chi-square statistic has a mean of buckets - 1 and a standard deviation of
+            // sqrt(2 * (buckets - 1)). Allow 5 standard deviations either side.
+            for (int buckets : new int[] { 10, 1000, 1024 }) {
+                int[] values = new int[1_000_000];
+                engine.create(5).fill(values, values.length, buckets);
+                double upper = buckets - 1 + 5 * Math.sqrt(2.0 * (buckets - 1));
+                double lower = buckets - 1 - 5 * Math.sqrt(2.0 * (buckets - 1));
+                double chi = chiSquare(values, buckets);
+                assertTrue(chi < upper, () -> String.format("%s %s buckets chi-square %s", engine, buckets, chi));
+                // enhanced double hashing steps through the buckets more evenly than random values.
+                if (engine != RandomEngine.ENHANCED_DOUBLE_HASH) {
+                    assertTrue(chi > lower, () -> String.format("%s %s buckets chi-square %s", engine, buckets, chi));
+                }
+            }
+        }
+    }
+}
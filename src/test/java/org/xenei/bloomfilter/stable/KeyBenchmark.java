@@ -0,0 +1,67 @@
+package org.xenei.bloomfilter.stable;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.function.LongPredicate;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares merging and testing 64 bit keys by hashing their bytes with the 128-bit
+ * MurmurHash3 into an EnhancedDoubleHasher with merging and testing them through
+ * the key methods of the stable filter, which do not create any objects. The small
+ * filter fits in the processor cache so the cost of producing the cells dominates.
+ * The bytes allocated per merge and test are measured on the HotSpot JVM.
+ */
+public class KeyBenchmark {
+
+    private static final int ITEMS = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    private static EnhancedDoubleHasher hasher(long key) {
+        long[] hash = MurmurHash3.hash128x64(ByteBuffer.allocate(Long.BYTES).putLong(key).array());
+        return new EnhancedDoubleHasher(hash[0], hash[1]);
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) {
+        System.out.format("%10s %10s %14s %14s %12s%n", "cells", "keys", "merge ns/op", "contains ns/op",
+                "bytes/op");
+        for (int cells : new int[] { 100_000, 10_000_000, 100_000, 10_000_000 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(7, cells)).setMax(3).setFps(0.01).build();
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            run(cells, "byte[]", key -> filter.merge(hasher(key)), key -> filter.contains(hasher(key)));
+            StableBloomFilter keyed = new StableBloomFilter(shape);
+            run(cells, "long", keyed::mergeKey, keyed::containsKey);
+        }
+    }
+
+    private static void run(int cells, String name, LongPredicate merger, LongPredicate tester) {
+        long merge = Long.MAX_VALUE;
+        long contains = Long.MAX_VALUE;
+        long bytes = 0;
+        int found = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long before = allocated();
+            long start = System.nanoTime();
+            for (long key = 0; key < ITEMS; key++) {
+                merger.test(key);
+            }
+            merge = Math.min(merge, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (long key = 0; key < ITEMS; key++) {
+                found += tester.test(key) ? 1 : 0;
+            }
+            contains = Math.min(contains, System.nanoTime() - start);
+            bytes = allocated() - before;
+        }
+        System.out.format("%10s %10s %14.2f %14.2f %12.1f (%d)%n", cells, name, merge * 1.0 / ITEMS,
+                contains * 1.0 / ITEMS, bytes / (2.0 * ITEMS), found);
+    }
+}
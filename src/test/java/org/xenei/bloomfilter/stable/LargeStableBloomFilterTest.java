@@ -0,0 +1,142 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class LargeStableBloomFilterTest {
+
+    @Test
+    public void shapeTest() {
+        LargeStableShape shape = LargeStableShape.builder().setM(30_000_000_000L).setFps(0.01).setMax(3).build();
+        assertEquals(30_000_000_000L, shape.numberOfCells());
+        assertEquals(7, shape.getNumberOfHashFunctions());
+        assertEquals(2, shape.bitsPerCell());
+        assertTrue(shape.decrementCount > 0);
+        assertTrue(shape.expectedCardinality > Integer.MAX_VALUE);
+
+        // the calculations match StableShape for small filters
+        StableShape small = StableShape.builder().setM(1000).setFps(0.01).setMax(3).build();
+        LargeStableShape large = LargeStableShape.builder().setM(1000).setFps(0.01).setMax(3).build();
+        assertEquals(small.decrementShape.getNumberOfHashFunctions(), large.decrementCount);
+        assertEquals(small.stablePoint, large.stablePoint);
+        assertEquals(small.expectedCardinality, large.expectedCardinality);
+
+        assertThrows(IllegalArgumentException.class, () -> LargeStableShape.builder().setM(1).setK(3).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> LargeStableShape.builder().setM(100).setK(3).setMax(0x10000).build());
+    }
+
+    @Test
+    public void mergeContainsTest() {
+        LargeStableShape shape = LargeStableShape.builder().setM(1000).setK(5).setP(1).setMax(255).build();
+        LargeStableBloomFilter underTest = new LargeStableBloomFilter(shape,
+                new SegmentedBufferManager(shape, 6, AbstractBufferManager::instance));
+        byte[] item = "Hello".getBytes(StandardCharsets.UTF_8);
+        assertFalse(underTest.contains(item));
+        underTest.merge(item);
+        assertTrue(underTest.contains(item));
+        assertTrue(underTest.cardinality() > 0 && underTest.cardinality() <= 5);
+        assertEquals(1.0, underTest.estimateN(), 0.1);
+
+        underTest.merge(5, 7);
+        assertTrue(underTest.contains(5, 7));
+        assertFalse(underTest.contains("World".getBytes(StandardCharsets.UTF_8)));
+
+        LargeStableBloomFilter copy = underTest.copy();
+        underTest.clear();
+        assertFalse(underTest.contains(item));
+        assertTrue(copy.contains(item));
+    }
+
+    @Test
+    public void decayTest() {
+        LargeStableShape shape = LargeStableShape.builder().setM(128).setK(3).setP(64).setMax(1).build();
+        LargeStableBloomFilter underTest = new LargeStableBloomFilter(shape);
+        underTest.merge(1, 3);
+        long before = underTest.cardinality();
+        for (int i = 0; i < 20; i++) {
+            underTest.merge(i * 31L, i * 17L + 1);
+        }
+        assertTrue(underTest.cardinality() < before + 60);
+        long[] count = { 0 };
+        underTest.forEachIndex(x -> {
+            assertTrue(x >= 0 && x < 128);
+            count[0]++;
+            return true;
+        });
+        assertEquals(underTest.cardinality(), count[0]);
+    }
+
+    @Test
+    public void bufferSizeTest() {
+        LargeStableShape shape = LargeStableShape.builder().setM(1000).setK(5).build();
+        LargeStableShape other = LargeStableShape.builder().setM(1001).setK(5).build();
+        assertThrows(IllegalArgumentException.class,
+                () -> new LargeStableBloomFilter(shape, new SegmentedBufferManager(other)));
+    }
+
+    /**
+     * Gets the cells of an item by merging it into an empty filter.
+     */
+    private static Set<Long> itemCells(LargeStableShape shape, long initial, long increment) {
+        LargeStableBloomFilter empty = new LargeStableBloomFilter(shape);
+        empty.merge(initial, increment);
+        Set<Long> result = new HashSet<>();
+        empty.forEachIndex(result::add);
+        return result;
+    }
+
+    @Test
+    public void decrementStrategyTest() {
+        LargeStableShape shape = LargeStableShape.builder().setM(100).setK(3).setP(10).setMax(1).build();
+        assertEquals(DecrementStrategy.RANDOM, shape.decrementStrategy);
+        assertEquals(RandomEngine.SPLIT_MIX, shape.randomEngine);
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            LargeStableShape strategyShape = LargeStableShape.builder().setM(100).setK(3).setP(10).setMax(1)
+                    .setDecrementStrategy(strategy).setRandomEngine(RandomEngine.XOROSHIRO).build();
+            assertEquals(strategy, strategyShape.decrementStrategy);
+            assertEquals(RandomEngine.XOROSHIRO, strategyShape.randomEngine);
+            assertEquals(shape.stablePoint, strategyShape.stablePoint);
+            SegmentedBufferManager buffer = new SegmentedBufferManager(strategyShape);
+            LargeStableBloomFilter underTest = new LargeStableBloomFilter(strategyShape, buffer);
+            for (int round = 0; round < 3; round++) {
+                for (long i = 0; i < 100; i++) {
+                    buffer.set(i);
+                }
+                underTest.merge(round * 31L, 7);
+                Set<Long> item = itemCells(strategyShape, round * 31L, 7);
+                Set<Long> cleared = new HashSet<>();
+                for (long i = 0; i < 100; i++) {
+                    if (!buffer.isSet(i)) {
+                        assertFalse(item.contains(i));
+                        cleared.add(i);
+                    }
+                }
+                if (strategy == DecrementStrategy.SWEEP) {
+                    // each sweep starts where the last one ended.
+                    for (long i = round * 10; i < round * 10 + 10; i++) {
+                        assertEquals(!item.contains(i), cleared.contains(i), strategy + " cell " + i);
+                    }
+                }
+                assertTrue(cleared.size() <= 10, strategy + " cleared " + cleared);
+                if (strategy != DecrementStrategy.RANDOM) {
+                    // the cleared cells are within one run of 10 cells, which may wrap.
+                    boolean inRun = false;
+                    for (long start = 0; start < 100 && !inRun; start++) {
+                        final long first = start;
+                        inRun = cleared.stream().allMatch(x -> (x - first + 100) % 100 < 10);
+                    }
+                    assertTrue(inRun, strategy + " cleared " + cleared);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedBufferManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private StableShape shape = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(3).build();
+
+    @Test
+    public void createAndOpenTest() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        try (MappedBufferManager underTest = MappedBufferManager.create(path, shape)) {
+            assertEquals(MappedBufferManager.HEADER_SIZE + AbstractWordBufferManager.numberOfWords(shape) * 8L,
+                    Files.size(path));
+            underTest.set(0);
+            underTest.set(100);
+            underTest.decrement(100);
+        }
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            StableShape read = underTest.getStableShape();
+            assertEquals(shape.numberOfCells(), read.numberOfCells());
+            assertEquals(shape.getNumberOfHashFunctions(), read.getNumberOfHashFunctions());
+            assertEquals(shape.decrementShape.getNumberOfHashFunctions(), read.decrementShape.getNumberOfHashFunctions());
+            assertEquals(shape.resetValue(), read.resetValue());
+            assertEquals(shape.fps, read.fps);
+            assertEquals(3, underTest.get(0));
+            assertEquals(2, underTest.get(100));
+            assertFalse(underTest.isSet(1));
+            assertEquals(2, underTest.cardinality());
+        }
+    }
+
+    @Test
+    public void recountTest() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        MappedBufferManager underTest = MappedBufferManager.create(path, shape);
+        underTest.set(4);
+        underTest.set(9);
+        underTest.set(70);
+        // not closed so the cardinality is not recorded.
+        underTest.flush();
+        try (MappedBufferManager reopened = MappedBufferManager.open(path)) {
+            assertEquals(3, reopened.cardinality());
+            reopened.decrement(4);
+            reopened.decrement(4);
+            reopened.decrement(4);
+            assertEquals(2, reopened.cardinality());
+        }
+        underTest.close();
+    }
+
+    @Test
+    public void version1Test() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        try (MappedBufferManager underTest = MappedBufferManager.create(path, shape)) {
+            underTest.set(4);
+            underTest.set(9);
+        }
+        // rewrite the header as version 1, where the cardinality and the fields from 40 were reserved.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(MappedBufferManager.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.putInt(8, MappedBufferManager.VERSION_1);
+            header.putInt(28, 0);
+            for (int i = 40; i < MappedBufferManager.HEADER_SIZE; i += Integer.BYTES) {
+                header.putInt(i, 0);
+            }
+            header.rewind();
+            channel.write(header, 0);
+        }
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            assertEquals(2, underTest.cardinality());
+            assertEquals(DecrementStrategy.RANDOM, underTest.getStableShape().decrementStrategy);
+            assertEquals(RandomEngine.ENHANCED_DOUBLE_HASH, underTest.getStableShape().randomEngine);
+            assertFalse(underTest.getStableShape().isBlocked());
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MappedBufferManager.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            assertEquals(MappedBufferManager.VERSION, header.getInt(8));
+            assertEquals(2, header.getInt(28));
+        }
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            assertEquals(2, underTest.cardinality());
+            assertTrue(underTest.isSet(4));
+            assertTrue(underTest.isSet(9));
+        }
+    }
+
+    @Test
+    public void createExistingTest() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        MappedBufferManager.create(path, shape).close();
+        assertThrows(FileAlreadyExistsException.class, () -> MappedBufferManager.create(path, shape));
+    }
+
+    @Test
+    public void openOrCreateTest() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        try (MappedBufferManager underTest = MappedBufferManager.openOrCreate(path, shape)) {
+            underTest.set(5);
+        }
+        try (MappedBufferManager underTest = MappedBufferManager.openOrCreate(path, shape)) {
+            assertTrue(underTest.isSet(5));
+        }
+        StableShape other = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(2).build();
+        assertThrows(IOException.class, () -> MappedBufferManager.openOrCreate(path, other));
+    }
+
+    @Test
+    public void openInvalidTest() throws IOException {
+        Path path = dir.resolve("bad.sbf");
+        Files.write(path, new byte[10]);
+        assertThrows(IOException.class, () -> MappedBufferManager.open(path));
+        Files.write(path, new byte[MappedBufferManager.HEADER_SIZE]);
+        assertThrows(IOException.class, () -> MappedBufferManager.open(path));
+    }
+
+    @Test
+    public void copyTest() throws IOException {
+        try (MappedBufferManager underTest = MappedBufferManager.create(dir.resolve("filter.sbf"), shape)) {
+            underTest.set(7);
+            BufferManager copy = underTest.copy();
+            assertEquals(3, copy.get(7));
+            copy.set(8);
+            assertFalse(underTest.isSet(8));
+        }
+    }
+
+    @Test
+    public void decrementStrategyTest() throws IOException {
+        Path path = dir.resolve("sweep.sbf");
+        StableShape sweep = StableShape.builder(Shape.fromNP(10, 1.0 / 10)).setMax(3)
+                .setDecrementStrategy(DecrementStrategy.SWEEP).build();
+        MappedBufferManager.create(path, sweep).close();
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            assertEquals(DecrementStrategy.SWEEP, underTest.getStableShape().decrementStrategy);
+        }
+        assertThrows(IOException.class, () -> MappedBufferManager.openOrCreate(path, shape));
+    }
+
+    @Test
+    public void randomEngineTest() throws IOException {
+        Path path = dir.resolve("xoroshiro.sbf");
+        StableShape xoroshiro = StableShape.builder(Shape.fromNP(10, 1.0 / 10)).setMax(3)
+                .setRandomEngine(RandomEngine.XOROSHIRO).build();
+        MappedBufferManager.create(path, xoroshiro).close();
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            assertEquals(RandomEngine.XOROSHIRO, underTest.getStableShape().randomEngine);
+        }
+        MappedBufferManager.openOrCreate(path, xoroshiro).close();
+        StableShape other = StableShape.builder(Shape.fromNP(10, 1.0 / 10)).setMax(3).build();
+        assertThrows(IOException.class, () -> MappedBufferManager.openOrCreate(path, other));
+    }
+
+    @Test
+    public void blockedTest() throws IOException {
+        Path path = dir.resolve("blocked.sbf");
+        StableShape blocked = StableShape.builder(Shape.fromNP(10, 1.0 / 10)).setMax(3).setBlocked(true).build();
+        MappedBufferManager.create(path, blocked).close();
+        try (MappedBufferManager underTest = MappedBufferManager.open(path)) {
+            assertEquals(blocked.cellsPerBlock, underTest.getStableShape().cellsPerBlock);
+            assertEquals(blocked.fps, underTest.getStableShape().fps);
+        }
+        MappedBufferManager.openOrCreate(path, blocked).close();
+        StableShape plain = StableShape.builder().setM(blocked.numberOfCells()).setK(blocked.getNumberOfHashFunctions())
+                .setP(blocked.decrementShape.getNumberOfHashFunctions()).setMax(3).setFps(blocked.fps).build();
+        assertThrows(IOException.class, () -> MappedBufferManager.openOrCreate(path, plain));
+    }
+
+    @Test
+    public void filterRestartTest() throws IOException {
+        Path path = dir.resolve("filter.sbf");
+        EnhancedDoubleHasher hasher = new EnhancedDoubleHasher(1, 2);
+        try (MappedBufferManager buffer = MappedBufferManager.create(path, shape)) {
+            new StableBloomFilter(shape, buffer).merge(hasher);
+        }
+        try (MappedBufferManager buffer = MappedBufferManager.open(path)) {
+            StableBloomFilter filter = new StableBloomFilter(buffer.getStableShape(), buffer);
+            assertTrue(filter.contains(hasher));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.collections4.bloomfilter.IndexProducer;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares merging items one at a time with merging them in batches, sequentially
+ * and with fork/join tasks in the common pool.
+ */
+public class MergeAllBenchmark {
+
+    private static final int CELLS = 100_000_000;
+    private static final int K = 7;
+    private static final int ITEMS = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int[] indices = new int[ITEMS * K];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = random.nextInt(CELLS);
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        System.out.format("%12s %10s %14s %14s%n", "strategy", "batch", "ns/item", "parallel");
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            StableShape shape = StableShape.builder(Shape.fromKM(K, CELLS)).setMax(3).setFps(0.01)
+                    .setDecrementStrategy(strategy).build();
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < indices.length; i += K) {
+                    filter.merge(IndexProducer.fromIndexArray(Arrays.copyOfRange(indices, i, i + K)));
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.format("%12s %10s %14.2f %14s%n", strategy, 1, best * 1.0 / ITEMS, "-");
+            for (int batch : new int[] { 10_000, 100_000 }) {
+                int[][] batches = new int[ITEMS / batch][];
+                for (int i = 0; i < batches.length; i++) {
+                    batches[i] = Arrays.copyOfRange(indices, i * batch * K, (i + 1) * batch * K);
+                }
+                best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int[] items : batches) {
+                        filter.mergeAll(items);
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                long parallel = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int[] items : batches) {
+                        filter.mergeAll(items, pool);
+                    }
+                    parallel = Math.min(parallel, System.nanoTime() - start);
+                }
+                System.out.format("%12s %10s %14.2f %14.2f%n", strategy, batch, best * 1.0 / ITEMS,
+                        parallel * 1.0 / ITEMS);
+            }
+        }
+    }
+}
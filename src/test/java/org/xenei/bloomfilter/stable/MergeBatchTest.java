@@ -0,0 +1,117 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class MergeBatchTest {
+
+    @Test
+    public void applyTest() {
+        Random random = new Random(42);
+        for (int max : new int[] { 1, 3, 7, 255, 300 }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 200)).setMax(max).build();
+            BufferManager expected = AbstractBufferManager.instance(shape);
+            BufferManager underTest = AbstractBufferManager.instance(shape);
+            for (int i = 0; i < shape.numberOfCells(); i += 3) {
+                expected.set(i);
+                underTest.set(i);
+            }
+            MergeBatch batch = new MergeBatch(shape.numberOfCells(), 0);
+            for (int i = 0; i < 2000; i++) {
+                // a small range of cells so that each cell receives many operations
+                int cell = random.nextInt(50);
+                if (random.nextInt(4) == 0) {
+                    expected.set(cell);
+                    batch.set(cell);
+                } else {
+                    expected.decrement(cell);
+                    batch.decrement(cell);
+                }
+            }
+            assertEquals(2000, batch.size());
+            batch.apply(underTest);
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expected.get(i), underTest.get(i), "max " + max + " cell " + i);
+            }
+            assertEquals(expected.cardinality(), underTest.cardinality());
+        }
+    }
+
+    @Test
+    public void parallelApplyTest() {
+        Random random = new Random(42);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int max : new int[] { 1, 3, 7, 255, 300 }) {
+                StableShape shape = StableShape.builder(Shape.fromKM(3, 100_000)).setMax(max).build();
+                @SuppressWarnings("unchecked")
+                Function<BufferShape, BufferManager>[] factories = new Function[] {
+                        (Function<BufferShape, BufferManager>) AbstractBufferManager::instance,
+                        (Function<BufferShape, BufferManager>) CompactBufferManager::new,
+                        (Function<BufferShape, BufferManager>) AtomicBufferManager::new,
+                        (Function<BufferShape, BufferManager>) s -> new OccupancyBufferManager(
+                                AbstractBufferManager.instance(s)) };
+                for (Function<BufferShape, BufferManager> factory : factories) {
+                    BufferManager expected = factory.apply(shape);
+                    BufferManager underTest = factory.apply(shape);
+                    // the changes are added to the existing count.
+                    for (int i = 0; i < shape.numberOfCells(); i += 5) {
+                        expected.set(i);
+                        underTest.set(i);
+                    }
+                    MergeBatch batch = new MergeBatch(shape.numberOfCells(), 0);
+                    for (int i = 0; i < 200_000; i++) {
+                        int cell = random.nextInt(shape.numberOfCells());
+                        if (random.nextInt(3) == 0) {
+                            batch.decrement(cell);
+                        } else {
+                            batch.set(cell);
+                        }
+                    }
+                    batch.apply(expected);
+                    batch.apply(underTest, pool);
+                    int set = 0;
+                    for (int i = 0; i < shape.numberOfCells(); i++) {
+                        assertEquals(expected.get(i), underTest.get(i), "max " + max + " cell " + i);
+                        set += underTest.isSet(i) ? 1 : 0;
+                    }
+                    assertEquals(set, expected.cardinality(), "max " + max);
+                    assertEquals(set, underTest.cardinality(), "max " + max);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void partitionTest() {
+        MergeBatch batch = new MergeBatch(200, 0);
+        assertEquals(4, batch.numberOfRegions());
+        batch.set(70);
+        batch.decrement(3);
+        batch.decrement(199);
+        batch.decrement(70);
+        batch.set(3);
+        int[] bounds = new int[batch.numberOfRegions() + 1];
+        int[] ops = batch.partition(bounds);
+        assertArrayEquals(new int[] { 0, 2, 4, 4, 5 }, bounds);
+        // order is kept within a region
+        assertArrayEquals(new int[] { 3, ~3, ~70, 70, 199 }, ops);
+    }
+
+    @Test
+    public void setOutOfRangeTest() {
+        MergeBatch batch = new MergeBatch(100, 0);
+        assertThrows(IllegalArgumentException.class, () -> batch.set(100));
+        assertThrows(IllegalArgumentException.class, () -> batch.test(-1));
+    }
+}
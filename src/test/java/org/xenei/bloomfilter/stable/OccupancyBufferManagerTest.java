@@ -0,0 +1,109 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.BloomFilter;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+import org.junit.jupiter.api.Test;
+
+public class OccupancyBufferManagerTest {
+
+    private StableShape shape = StableShape.builder(Shape.fromKM(3, 200)).setMax(3).build();
+
+    private static List<Integer> indices(BufferManager buffer) {
+        List<Integer> result = new ArrayList<>();
+        buffer.forEachIndex(result::add);
+        return result;
+    }
+
+    @Test
+    public void trackingTest() {
+        Random random = new Random(42);
+        BufferManager expected = AbstractBufferManager.instance(shape);
+        OccupancyBufferManager underTest = new OccupancyBufferManager(AbstractBufferManager.instance(shape));
+        int[] entries = new int[10];
+        for (int round = 0; round < 500; round++) {
+            int entry = random.nextInt(shape.numberOfCells());
+            expected.set(entry);
+            underTest.set(entry);
+            entry = random.nextInt(shape.numberOfCells());
+            expected.decrement(entry);
+            underTest.decrement(entry);
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = random.nextInt(shape.numberOfCells());
+            }
+            expected.decrement(entries, entries.length);
+            underTest.decrement(entries, entries.length);
+            entry = random.nextInt(shape.numberOfCells());
+            expected.func(entry, 0, (x, y) -> y);
+            underTest.func(entry, 0, (x, y) -> y);
+
+            assertEquals(expected.cardinality(), underTest.cardinality());
+            assertArrayEquals(expected.asBitMapArray(), underTest.asBitMapArray());
+            assertEquals(indices(expected), indices(underTest));
+        }
+    }
+
+    @Test
+    public void existingBufferTest() {
+        BufferManager buffer = AbstractBufferManager.instance(shape);
+        buffer.set(3);
+        buffer.set(64);
+        buffer.set(199);
+        OccupancyBufferManager underTest = new OccupancyBufferManager(buffer);
+        assertThat(indices(underTest)).containsExactly(3, 64, 199);
+        assertTrue(underTest.isSet(64));
+        assertFalse(underTest.isSet(65));
+    }
+
+    @Test
+    public void copyAndClearTest() {
+        OccupancyBufferManager underTest = new OccupancyBufferManager(AbstractBufferManager.instance(shape));
+        underTest.set(5);
+        OccupancyBufferManager copy = underTest.copy();
+        underTest.clear();
+        assertFalse(underTest.isSet(5));
+        assertEquals(0, underTest.cardinality());
+        assertThat(indices(underTest)).isEmpty();
+        assertTrue(copy.isSet(5));
+        assertThat(indices(copy)).containsExactly(5);
+    }
+
+    @Test
+    public void flattenTest() {
+        StableShape filterShape = StableShape.builder(Shape.fromNP(100, 1.0 / 100)).setMax(3).build();
+        BufferManager cells = AbstractBufferManager.instance(filterShape);
+        StableBloomFilter filter = new StableBloomFilter(filterShape, new OccupancyBufferManager(cells));
+        for (int i = 0; i < 50; i++) {
+            filter.merge(new EnhancedDoubleHasher(i, 7));
+        }
+        BloomFilter flat = filter.flatten();
+        assertEquals(filter.cardinality(), flat.cardinality());
+        // the cell buffer produces its bit maps by testing every cell.
+        assertArrayEquals(cells.asBitMapArray(), flat.asBitMapArray());
+    }
+
+    @Test
+    public void decrementRangeTest() {
+        OccupancyBufferManager underTest = new OccupancyBufferManager(AbstractBufferManager.instance(shape));
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            underTest.set(i);
+        }
+        for (int i = 0; i < shape.resetValue(); i++) {
+            underTest.decrementRange(10, 70);
+        }
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(i < 10 || i >= 80, underTest.isSet(i), "cell " + i);
+        }
+        assertEquals(shape.numberOfCells() - 70, underTest.cardinality());
+    }
+}
@@ -21,15 +21,9 @@ public class PackedBufferManagerTest {
         underTest = new AbstractBufferManager.Packed(shape);
         assertEquals(5, underTest.buffer.length);
 
-        underTest = (AbstractBufferManager) AbstractBufferManager.instance(shape);
-        assertEquals(5, underTest.buffer.length);
-
         shape = StableShape.builder(testShape).setMax(oddReset).build();
         underTest = new AbstractBufferManager.Packed(shape);
         assertEquals(9, underTest.buffer.length);
-
-        underTest = (AbstractBufferManager) AbstractBufferManager.instance(shape);
-        assertEquals(9, underTest.buffer.length);
     }
 
     @Test
@@ -180,4 +174,27 @@ public class PackedBufferManagerTest {
         assertEquals(0x24, underTest.buffer[0]);
         assertEquals(4, underTest.buffer[1]);
     }
+
+    @Test
+    public void cardinalityTest() {
+        StableShape shape = StableShape.builder(testShape).setMax(evenReset).build();
+        underTest = new AbstractBufferManager.Packed(shape);
+        assertEquals(0, underTest.cardinality());
+        underTest.set(1);
+        underTest.set(2);
+        underTest.set(2);
+        assertEquals(2, underTest.cardinality());
+        underTest.decrement(1);
+        assertEquals(2, underTest.cardinality());
+        underTest.decrement(1);
+        assertEquals(1, underTest.cardinality());
+        underTest.decrement(1);
+        assertEquals(1, underTest.cardinality());
+        assertEquals(1, underTest.copy().cardinality());
+        underTest.func(2, 0, (x, y) -> y);
+        assertEquals(0, underTest.cardinality());
+        underTest.set(5);
+        underTest.clear();
+        assertEquals(0, underTest.cardinality());
+    }
 }
@@ -0,0 +1,98 @@
+package org.xenei.bloomfilter.stable;
+
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares the random engines: the time to generate an index one at a time and
+ * in bulk, the chi-square statistic of the indices against a uniform distribution
+ * and the number of set cells a stable filter settles at, against the expected
+ * cardinality of the shape. The small filter column is the mean absolute difference
+ * from the expected cardinality of a 10,000 cell filter over several seeds, after
+ * a short run where the generator has produced relatively few values.
+ */
+public class RandomEngineBenchmark {
+
+    private static final int CALLS = 100_000_000;
+    private static final int BUCKETS = 1000;
+    private static final int SAMPLES = 10_000_000;
+    private static final int CELLS = 1_000_000;
+    private static final int K = 7;
+    private static final int BATCH = 100_000;
+    private static final int ROUNDS = 5;
+    private static final int SMALL_CELLS = 10_000;
+    private static final int SEEDS = 10;
+
+    public static void main(String[] args) {
+        StableShape base = StableShape.builder(Shape.fromKM(K, CELLS)).setMax(3).setFps(0.01).build();
+        System.out.println("Shape: " + base);
+        double chiLimit = BUCKETS - 1 + 5 * Math.sqrt(2.0 * (BUCKETS - 1));
+        System.out.format("%22s %12s %12s %14s %12s %12s %12s%n", "engine", "nextInt ns", "fill ns", "chi-square",
+                "cardinality", "expected", "small diff");
+        for (int round = 0; round < 2; round++) {
+            for (RandomEngine engine : RandomEngine.values()) {
+                IndexGenerator generator = engine.create(1);
+                long next = Long.MAX_VALUE;
+                long sum = 0;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < CALLS; i++) {
+                        sum += generator.nextInt(CELLS);
+                    }
+                    next = Math.min(next, System.nanoTime() - start);
+                }
+                int[] out = new int[base.decrementShape.getNumberOfHashFunctions()];
+                long fill = Long.MAX_VALUE;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < CALLS; i += out.length) {
+                        generator.fill(out, out.length, CELLS);
+                        sum += out[0];
+                    }
+                    fill = Math.min(fill, System.nanoTime() - start);
+                }
+
+                int[] samples = new int[SAMPLES];
+                generator.fill(samples, samples.length, BUCKETS);
+                double chi = IndexGeneratorTest.chiSquare(samples, BUCKETS);
+
+                StableShape shape = StableShape.builder(Shape.fromKM(K, CELLS)).setMax(3).setFps(0.01)
+                        .setRandomEngine(engine).build();
+                StableBloomFilter filter = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        engine.create(2));
+                // fill with new items for 5 times the decay time, m * Max / P items, then
+                // average the cardinality over another decay time.
+                long decay = (long) CELLS * shape.resetValue() / shape.decrementShape.getNumberOfHashFunctions();
+                IndexGenerator items = RandomEngine.SPLIT_MIX.create(3);
+                int[] indices = new int[BATCH * K];
+                long total = 0;
+                int measured = 0;
+                for (long n = 0; n < decay * 6; n += BATCH) {
+                    items.fill(indices, indices.length, CELLS);
+                    filter.mergeAll(indices);
+                    if (n >= decay * 5) {
+                        total += filter.cardinality();
+                        measured++;
+                    }
+                }
+                System.out.format("%22s %12.2f %12.2f %9.1f %4s %12.0f %12d %12.1f (%d)%n", engine,
+                        next * 1.0 / CALLS, fill * 1.0 / CALLS, chi, chi < chiLimit ? "ok" : "FAIL",
+                        total * 1.0 / measured, shape.expectedCardinality, smallFilter(engine), sum & 1);
+            }
+        }
+    }
+
+    private static double smallFilter(RandomEngine engine) {
+        StableShape shape = StableShape.builder(Shape.fromKM(3, SMALL_CELLS)).setMax(3).setFps(0.1)
+                .setRandomEngine(engine).build();
+        double total = 0;
+        for (int seed = 1; seed <= SEEDS; seed++) {
+            StableBloomFilter filter = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                    engine.create(seed));
+            int[] indices = new int[SMALL_CELLS * 2 * 3];
+            RandomEngine.SPLIT_MIX.create(seed + 100).fill(indices, indices.length, SMALL_CELLS);
+            filter.mergeAll(indices);
+            total += Math.abs(filter.cardinality() - shape.expectedCardinality);
+        }
+        return total / SEEDS;
+    }
+}
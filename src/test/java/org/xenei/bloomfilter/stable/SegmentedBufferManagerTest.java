@@ -0,0 +1,68 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SegmentedBufferManagerTest {
+
+    private LargeStableShape shape = LargeStableShape.builder().setM(200).setK(3).setP(2).setMax(3).build();
+
+    @Test
+    public void segmentTest() {
+        SegmentedBufferManager underTest = new SegmentedBufferManager(shape, 6, AbstractBufferManager::instance);
+        assertEquals(4, underTest.numberOfSegments());
+        assertEquals(64, underTest.getSegment(0).getShape().numberOfCells());
+        assertEquals(8, underTest.getSegment(3).getShape().numberOfCells());
+        assertEquals(200, underTest.numberOfCells());
+
+        underTest = new SegmentedBufferManager(shape, 6, AbstractWordBufferManager.Direct::new);
+        assertInstanceOf(AbstractWordBufferManager.Direct.class, underTest.getSegment(0));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SegmentedBufferManager(shape, 5, AbstractBufferManager::instance));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SegmentedBufferManager(shape, 31, AbstractBufferManager::instance));
+    }
+
+    @Test
+    public void setDecrementTest() {
+        SegmentedBufferManager underTest = new SegmentedBufferManager(shape, 6, AbstractBufferManager::instance);
+        long[] entries = { 0, 63, 64, 127, 128, 199 };
+        for (long entry : entries) {
+            underTest.set(entry);
+            assertEquals(3, underTest.get(entry));
+            assertTrue(underTest.isSet(entry));
+        }
+        assertFalse(underTest.isSet(1));
+        assertFalse(underTest.isSet(65));
+        assertEquals(entries.length, underTest.cardinality());
+        assertTrue(underTest.getSegment(1).isSet(0));
+        assertTrue(underTest.getSegment(3).isSet(7));
+
+        List<Long> found = new ArrayList<>();
+        underTest.forEachIndex(x -> found.add(x));
+        assertEquals(Arrays.asList(0L, 63L, 64L, 127L, 128L, 199L), found);
+
+        SegmentedBufferManager copy = underTest.copy();
+        for (int i = 0; i < 3; i++) {
+            underTest.decrement(64);
+        }
+        assertFalse(underTest.isSet(64));
+        assertEquals(entries.length - 1, underTest.cardinality());
+        assertTrue(copy.isSet(64));
+        assertEquals(entries.length, copy.cardinality());
+
+        underTest.clear();
+        assertEquals(0, underTest.cardinality());
+        assertFalse(underTest.isSet(199));
+    }
+}
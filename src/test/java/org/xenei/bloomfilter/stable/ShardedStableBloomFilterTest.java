@@ -0,0 +1,149 @@
+package org.xenei.bloomfilter.stable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.junit.jupiter.api.Test;
+
+public class ShardedStableBloomFilterTest {
+
+    private static Hasher hasher(int i) {
+        return new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+    }
+
+    @Test
+    public void shapeTest() {
+        StableShape shape = StableShape.builder().setM(10_000).setK(5).setP(10).setMax(3)
+                .setDecrementStrategy(DecrementStrategy.SWEEP).build();
+        ShardedStableBloomFilter underTest = new ShardedStableBloomFilter(shape, 3);
+        assertEquals(3, underTest.numberOfShards());
+        StableShape shardShape = underTest.getShardShape();
+        assertEquals(3334, shardShape.numberOfCells());
+        assertEquals(5, shardShape.getNumberOfHashFunctions());
+        assertEquals(10, shardShape.decrementShape.getNumberOfHashFunctions());
+        assertEquals(3, shardShape.resetValue());
+        assertEquals(shape.fps, shardShape.fps);
+        assertEquals(DecrementStrategy.SWEEP, shardShape.decrementStrategy);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(shardShape, underTest.getShard(i).getStableShape());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new ShardedStableBloomFilter(shape, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedStableBloomFilter(shape, 5001));
+    }
+
+    @Test
+    public void routingTest() {
+        StableShape shape = StableShape.builder().setM(10_000).setK(5).setP(1).setMax(255).build();
+        ShardedStableBloomFilter underTest = new ShardedStableBloomFilter(shape, 4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            int shard = underTest.shardIndex(hasher(i));
+            assertEquals(shard, underTest.shardIndex(hasher(i)));
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 800 && count < 1200, () -> "Unbalanced shard count " + count);
+        }
+    }
+
+    @Test
+    public void largeShapeTest() {
+        // m + N - 1 overflows an int.
+        StableShape shape = StableShape.builder().setM(Integer.MAX_VALUE - 1).setK(5).setP(10).setMax(3).build();
+        assertEquals(715827882, ShardedStableBloomFilter.shardShape(shape, 3).numberOfCells());
+        assertEquals(Integer.MAX_VALUE - 1, ShardedStableBloomFilter.shardShape(shape, 1).numberOfCells());
+    }
+
+    @Test
+    public void keyTest() {
+        StableShape shape = StableShape.builder().setM(10_000).setK(5).setP(1).setMax(255).build();
+        ShardedStableBloomFilter underTest = new ShardedStableBloomFilter(shape, 4);
+        int[] counts = new int[4];
+        for (long i = 0; i < 4000; i++) {
+            int shard = underTest.shardIndex(i * 0x9E3779B97F4A7C15L, i);
+            assertEquals(shard, underTest.shardIndex(i * 0x9E3779B97F4A7C15L, i));
+            assertEquals(underTest.shardIndex(0, i), underTest.shardIndex(i));
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 800 && count < 1200, () -> "Unbalanced shard count " + count);
+        }
+        for (long i = 0; i < 100; i++) {
+            assertTrue(underTest.mergeKey(i, i + 1));
+            assertTrue(underTest.containsKey(i, i + 1));
+            assertTrue(underTest.shardFor(i, i + 1).containsKey(i, i + 1));
+            assertTrue(underTest.mergeKey(i));
+            assertTrue(underTest.getShard(underTest.shardIndex(i)).containsKey(i));
+        }
+        assertTrue(underTest.testAndMergeKey(5, 6));
+        assertTrue(underTest.testAndMergeKey(5));
+        assertFalse(underTest.testAndMergeKey(1000, 1001));
+        assertFalse(underTest.testAndMergeKey(1000));
+        assertTrue(underTest.containsKey(1000, 1001));
+        assertTrue(underTest.containsKey(1000));
+    }
+
+    @Test
+    public void mergeContainsTest() {
+        StableShape shape = StableShape.builder().setM(10_000).setK(5).setP(1).setMax(255).build();
+        ShardedStableBloomFilter underTest = new ShardedStableBloomFilter(shape, 4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(underTest.merge(hasher(i)));
+            assertTrue(underTest.contains(hasher(i)));
+            assertTrue(underTest.shardFor(hasher(i)).contains(hasher(i)));
+        }
+        long cardinality = 0;
+        for (int i = 0; i < 4; i++) {
+            cardinality += underTest.getShard(i).cardinality();
+        }
+        assertEquals(cardinality, underTest.cardinality());
+        assertEquals(100, underTest.estimateN(), 5);
+
+        assertTrue(underTest.testAndMerge(hasher(5)));
+        assertFalse(underTest.testAndMerge(hasher(1000)));
+        assertTrue(underTest.contains(hasher(1000)));
+
+        underTest.clear();
+        assertEquals(0, underTest.cardinality());
+        assertFalse(underTest.contains(hasher(5)));
+    }
+
+    @Test
+    public void threadPerShardTest() throws InterruptedException {
+        StableShape shape = StableShape.builder().setM(20_000).setK(5).setP(1).setMax(255).build();
+        ShardedStableBloomFilter underTest = new ShardedStableBloomFilter(shape, 4);
+        // one thread routes the hashers, then each shard is merged into by its own thread.
+        List<List<Hasher>> partitions = new ArrayList<>();
+        for (int t = 0; t < underTest.numberOfShards(); t++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 1000; i++) {
+            Hasher hasher = hasher(i);
+            partitions.get(underTest.shardIndex(hasher)).add(hasher);
+        }
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int shard = t;
+            threads[t] = new Thread(() -> {
+                for (Hasher hasher : partitions.get(shard)) {
+                    underTest.getShard(shard).merge(hasher);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(underTest.contains(hasher(i)));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.xenei.bloomfilter.stable;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.apache.commons.collections4.bloomfilter.Shape;
@@ -82,4 +83,31 @@ public class SimpleBufferManagerTest {
         underTest.set(3);
         assertThat(underTest.buffer).contains(0, 128, 0, 128, 0);
     }
+
+    @Test
+    public void cardinalityTest() {
+        underTest = new AbstractBufferManager.Simple(shape);
+        assertEquals(0, underTest.cardinality());
+        underTest.set(1);
+        underTest.set(3);
+        underTest.set(3);
+        assertEquals(2, underTest.cardinality());
+        underTest.func(1, 1, (x, y) -> y);
+        assertEquals(2, underTest.cardinality());
+        underTest.decrement(1);
+        assertEquals(1, underTest.cardinality());
+        underTest.decrement(1);
+        assertEquals(1, underTest.cardinality());
+        assertEquals(1, underTest.copy().cardinality());
+        underTest.func(4, 5, (x, y) -> y);
+        assertEquals(2, underTest.cardinality());
+        underTest.clear();
+        assertEquals(0, underTest.cardinality());
+    }
+
+    @Test
+    public void wideShapeTest() {
+        StableShape wide = StableShape.builder(Shape.fromNP(5, 1.0 / 5)).setMax(256).build();
+        assertThrows(IllegalArgumentException.class, () -> new AbstractBufferManager.Simple(wide));
+    }
 }
@@ -11,12 +11,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.collections4.bloomfilter.ArrayHasher;
 import org.apache.commons.collections4.bloomfilter.BitMap;
 import org.apache.commons.collections4.bloomfilter.BitMapProducer;
 import org.apache.commons.collections4.bloomfilter.BloomFilter;
 import org.apache.commons.collections4.bloomfilter.DefaultIndexProducerTest;
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
 import org.apache.commons.collections4.bloomfilter.Hasher;
 import org.apache.commons.collections4.bloomfilter.IncrementingHasher;
 import org.apache.commons.collections4.bloomfilter.IndexProducer;
@@ -432,4 +434,494 @@ public class StableBloomFilterTest2 {
         });
         assertEquals(BitMap.numberOfBitMaps(getTestShape().getNumberOfBits()), idx[0]);
     }
+
+    @Test
+    public void testSweepDecrement() {
+        // with max 1 and P = m/2 two merges sweep every cell.
+        StableShape shape = StableShape.builder(Shape.fromKM(3, 100)).setMax(1).setP(50)
+                .setDecrementStrategy(DecrementStrategy.SWEEP).build();
+        StableBloomFilter filter = new StableBloomFilter(shape);
+        for (int i = 0; i < 10; i++) {
+            filter.merge(new EnhancedDoubleHasher(i, 7));
+            assertTrue(filter.contains(new EnhancedDoubleHasher(i, 7)));
+            assertTrue(filter.cardinality() <= 6);
+        }
+    }
+
+    @Test
+    public void testConsecutiveDecrement() {
+        StableShape shape = StableShape.builder(Shape.fromKM(3, 100)).setMax(1).setP(100)
+                .setDecrementStrategy(DecrementStrategy.CONSECUTIVE).build();
+        StableBloomFilter filter = new StableBloomFilter(shape);
+        for (int i = 0; i < 10; i++) {
+            filter.merge(new EnhancedDoubleHasher(i, 7));
+            assertTrue(filter.contains(new EnhancedDoubleHasher(i, 7)));
+            assertEquals(3, filter.cardinality());
+        }
+    }
+
+    @Test
+    public void testMergeAll() {
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            StableShape shape = StableShape.builder(Shape.fromKM(5, 500)).setMax(3).setP(20)
+                    .setDecrementStrategy(strategy).build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(1, 2));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(1, 2));
+            List<Hasher> hashers = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                Hasher hasher = new EnhancedDoubleHasher(i * 31L, i * 7L + 1);
+                hashers.add(hasher);
+                expected.merge(hasher);
+            }
+            assertTrue(underTest.mergeAll(hashers.subList(0, 150)));
+            assertTrue(underTest.mergeAll(hashers.subList(150, 300).toArray(new Hasher[0])));
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expectedBuffer.get(i), buffer.get(i), strategy + " cell " + i);
+            }
+            assertEquals(expected.cardinality(), underTest.cardinality(), strategy.name());
+        }
+    }
+
+    @Test
+    public void testMergeAllFailure() {
+        // produces an index and then fails.
+        Hasher failing = new Hasher() {
+            @Override
+            public IndexProducer indices(Shape shape) {
+                return consumer -> {
+                    consumer.test(1);
+                    throw new IllegalStateException("test");
+                };
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (DecrementStrategy strategy : DecrementStrategy.values()) {
+                for (boolean blocked : new boolean[] { false, true }) {
+                    for (boolean parallel : new boolean[] { false, true }) {
+                        String msg = strategy + (blocked ? " blocked" : "") + (parallel ? " parallel" : "");
+                        StableShape shape = StableShape.builder(Shape.fromKM(5, 2000)).setMax(3).setP(20)
+                                .setDecrementStrategy(strategy).setBlocked(blocked).build();
+                        BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+                        BufferManager buffer = AbstractBufferManager.instance(shape);
+                        StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer,
+                                new FastPseudoRandomInt(1, 2));
+                        StableBloomFilter underTest = new StableBloomFilter(shape, buffer,
+                                new FastPseudoRandomInt(1, 2));
+                        List<Hasher> hashers = new ArrayList<>();
+                        for (int i = 0; i < 100; i++) {
+                            hashers.add(new EnhancedDoubleHasher(i * 31L, i * 7L + 1));
+                        }
+                        List<Hasher> withFailure = new ArrayList<>(hashers.subList(0, 50));
+                        withFailure.add(failing);
+                        withFailure.addAll(hashers.subList(50, 100));
+
+                        expected.mergeAll(hashers.subList(0, 50));
+                        if (parallel) {
+                            assertThrows(IllegalStateException.class, () -> underTest.mergeAll(withFailure, pool),
+                                    msg);
+                        } else {
+                            assertThrows(IllegalStateException.class, () -> underTest.mergeAll(withFailure), msg);
+                        }
+                        // the hashers before the failure are merged and the generator has not drifted.
+                        expected.mergeAll(hashers.subList(50, 100));
+                        underTest.mergeAll(hashers.subList(50, 100));
+                        for (int i = 0; i < shape.numberOfCells(); i++) {
+                            assertEquals(expectedBuffer.get(i), buffer.get(i), msg + " cell " + i);
+                        }
+                        assertEquals(expected.cardinality(), underTest.cardinality(), msg);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergeAllIndices() {
+        StableShape shape = StableShape.builder(Shape.fromKM(3, 100)).setMax(3).setP(5).build();
+        StableBloomFilter expected = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                new FastPseudoRandomInt(3, 4));
+        StableBloomFilter underTest = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                new FastPseudoRandomInt(3, 4));
+        int[] indices = { 1, 2, 3, 4, 5, 6, 1, 1, 99 };
+        for (int i = 0; i < indices.length; i += 3) {
+            expected.merge(IndexProducer.fromIndexArray(Arrays.copyOfRange(indices, i, i + 3)));
+        }
+        underTest.mergeAll(indices);
+        assertArrayEquals(expected.asBitMapArray(), underTest.asBitMapArray());
+        assertThrows(IllegalArgumentException.class, () -> underTest.mergeAll(new int[] { 1, 2 }));
+        assertThrows(IllegalArgumentException.class, () -> underTest.mergeAll(new int[] { 1, 2, 100 }));
+    }
+
+    @Test
+    public void testParallelMergeAll() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DecrementStrategy strategy : DecrementStrategy.values()) {
+                StableShape shape = StableShape.builder(Shape.fromKM(5, 100_000)).setMax(3).setP(20)
+                        .setDecrementStrategy(strategy).build();
+                StableBloomFilter expected = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                StableBloomFilter underTest = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                List<Hasher> hashers = new ArrayList<>();
+                for (int i = 0; i < 20_000; i++) {
+                    hashers.add(new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1));
+                }
+                expected.mergeAll(hashers);
+                underTest.mergeAll(hashers, pool);
+                assertArrayEquals(expected.asBitMapArray(), underTest.asBitMapArray(), strategy.toString());
+                assertEquals(expected.cardinality(), underTest.cardinality(), strategy.toString());
+
+                int[] indices = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+                expected.mergeAll(indices);
+                underTest.mergeAll(indices, pool);
+                assertArrayEquals(expected.asBitMapArray(), underTest.asBitMapArray(), strategy.toString());
+                assertThrows(IllegalArgumentException.class, () -> underTest.mergeAll(new int[] { 1, 2 }, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testContainsAll() {
+        StableShape shape = StableShape.builder(Shape.fromKM(5, 100_000)).setMax(255).setP(1).build();
+        StableBloomFilter filter = new StableBloomFilter(shape);
+        Hasher[] hashers = new Hasher[10_000];
+        for (int i = 0; i < hashers.length; i++) {
+            hashers[i] = new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+            if (i % 3 == 0) {
+                filter.merge(hashers[i].indices(filter.getShape()));
+            }
+        }
+        boolean[] expected = new boolean[hashers.length];
+        int[] indices = new int[hashers.length * 5];
+        for (int i = 0; i < hashers.length; i++) {
+            expected[i] = filter.contains(hashers[i].indices(filter.getShape()));
+            System.arraycopy(hashers[i].indices(filter.getShape()).asIndexArray(), 0, indices, i * 5, 5);
+        }
+        assertArrayEquals(expected, filter.containsAll(hashers));
+        assertArrayEquals(expected, filter.containsAll(indices));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertArrayEquals(expected, filter.containsAll(hashers, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, filter.containsAll(new Hasher[0]).length);
+
+        assertThrows(IllegalArgumentException.class, () -> filter.containsAll(new int[] { 1, 2 }));
+        assertThrows(IllegalArgumentException.class, () -> filter.containsAll(new int[] { 1, 2, 3, 4, 100_000 }));
+        for (int delta : new int[] { -1, 1 }) {
+            Hasher bad = new EnhancedDoubleHasher(1, 1) {
+                @Override
+                public IndexProducer indices(Shape s) {
+                    return super.indices(Shape.fromKM(s.getNumberOfHashFunctions() + delta, s.getNumberOfBits()));
+                }
+            };
+            assertThrows(IllegalArgumentException.class, () -> filter.containsAll(bad));
+        }
+    }
+
+    @Test
+    public void testBlocked() {
+        StableShape shape = StableShape.builder(Shape.fromKM(7, 100_000)).setMax(1).setP(2048).setBlocked(true)
+                .build();
+        int block = shape.cellsPerBlock;
+        StableBloomFilter filter = new StableBloomFilter(shape);
+        Hasher first = new EnhancedDoubleHasher(1, 0x9E3779B97F4A7C15L);
+        filter.merge(first);
+        int[] cells = filter.asIndexArray();
+        assertTrue(cells.length > 1);
+        for (int cell : cells) {
+            assertEquals(cells[0] / block, cell / block);
+        }
+        assertTrue(filter.contains(first));
+        // the decrements of an item only fall in its own block.
+        for (int i = 2; i < 100; i++) {
+            Hasher hasher = new EnhancedDoubleHasher(i, 0x9E3779B97F4A7C15L);
+            int[] other = new int[1];
+            hasher.indices(filter.getShape()).forEachIndex(x -> {
+                other[0] = x;
+                return false;
+            });
+            if (other[0] / block != cells[0] / block) {
+                filter.merge(hasher);
+                assertTrue(filter.contains(hasher));
+            }
+        }
+        assertTrue(filter.contains(first));
+        filter.merge(filter.copy());
+        assertTrue(filter.contains(filter.copy()));
+        assertTrue(filter.contains(first));
+        // the cells of a blocked filter are stored and tested where they are.
+        StableBloomFilter other = new StableBloomFilter(shape);
+        Hasher item = new EnhancedDoubleHasher(12345, 0x9E3779B97F4A7C15L);
+        other.merge(item);
+        filter.merge(other);
+        assertTrue(filter.contains(item));
+        assertTrue(filter.contains(other));
+        assertTrue(filter.contains((IndexProducer) other));
+        assertTrue(filter.contains((BitMapProducer) other));
+        // the blocks of the cells of any other filter are unknown.
+        SimpleBloomFilter simple = new SimpleBloomFilter(filter.getShape());
+        simple.merge(first);
+        assertThrows(IllegalArgumentException.class, () -> filter.contains(simple));
+        assertThrows(IllegalArgumentException.class, () -> filter.contains((BitMapProducer) simple));
+        assertThrows(IllegalArgumentException.class, () -> filter.contains((IndexProducer) simple));
+        StableBloomFilter copy = filter.copy();
+        assertThrows(IllegalArgumentException.class, () -> filter.merge(simple));
+        assertThrows(IllegalArgumentException.class, () -> filter.merge((BitMapProducer) simple));
+        assertThrows(IllegalArgumentException.class, () -> filter.merge((IndexProducer) simple));
+        assertThrows(IllegalArgumentException.class,
+                () -> filter.merge(new StableBloomFilter(StableShape.builder(shape.getShape()).build())));
+        assertArrayEquals(copy.asBitMapArray(), filter.asBitMapArray());
+
+        Hasher[] hashers = new Hasher[1000];
+        for (int i = 0; i < hashers.length; i++) {
+            hashers[i] = new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+        }
+        boolean[] expected = new boolean[hashers.length];
+        for (int i = 0; i < hashers.length; i++) {
+            expected[i] = filter.contains(hashers[i]);
+        }
+        assertArrayEquals(expected, filter.containsAll(hashers));
+    }
+
+    @Test
+    public void testBlockedMergeAll() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (DecrementStrategy strategy : DecrementStrategy.values()) {
+                StableShape shape = StableShape.builder(Shape.fromKM(5, 10_000)).setMax(3).setP(20)
+                        .setDecrementStrategy(strategy).setBlocked(true).build();
+                StableBloomFilter expected = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                StableBloomFilter batched = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                StableBloomFilter parallel = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                StableBloomFilter tested = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                        new FastPseudoRandomInt(3, 4));
+                List<Hasher> hashers = new ArrayList<>();
+                int[] indices = new int[2000 * 5];
+                for (int i = 0; i < 2000; i++) {
+                    Hasher hasher = new EnhancedDoubleHasher(i * 0x9E3779B97F4A7C15L, i + 1);
+                    hashers.add(hasher);
+                    System.arraycopy(hasher.indices(shape.getShape()).asIndexArray(), 0, indices, i * 5, 5);
+                }
+                boolean[] present = new boolean[hashers.size()];
+                for (int i = 0; i < hashers.size(); i++) {
+                    present[i] = expected.contains(hashers.get(i).indices(shape.getShape()));
+                    expected.merge(hashers.get(i).indices(shape.getShape()));
+                }
+                batched.mergeAll(hashers);
+                assertArrayEquals(expected.asBitMapArray(), batched.asBitMapArray(), strategy.toString());
+                parallel.mergeAll(indices, pool);
+                assertArrayEquals(expected.asBitMapArray(), parallel.asBitMapArray(), strategy.toString());
+                assertArrayEquals(present, tested.testAndMergeAll(indices), strategy.toString());
+                assertArrayEquals(expected.asBitMapArray(), tested.asBitMapArray(), strategy.toString());
+                // the caller's array is not changed
+                assertArrayEquals(hashers.get(0).indices(shape.getShape()).asIndexArray(),
+                        Arrays.copyOf(indices, 5));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTestAndMerge() {
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            // small filter so that decrements often hit the merged cells
+            StableShape shape = StableShape.builder(Shape.fromKM(4, 60)).setMax(2).setP(10)
+                    .setDecrementStrategy(strategy).build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(5, 6));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(5, 6));
+            int found = 0;
+            for (int i = 0; i < 500; i++) {
+                Hasher hasher = new EnhancedDoubleHasher(i / 2 % 40, 3);
+                boolean present = expected.contains(hasher);
+                expected.merge(hasher);
+                assertEquals(present, underTest.testAndMerge(hasher), strategy + " item " + i);
+                found += present ? 1 : 0;
+                for (int j = 0; j < shape.numberOfCells(); j++) {
+                    assertEquals(expectedBuffer.get(j), buffer.get(j), strategy + " item " + i + " cell " + j);
+                }
+                assertEquals(expected.cardinality(), underTest.cardinality());
+            }
+            assertTrue(found > 0);
+        }
+    }
+
+    @Test
+    public void testTestAndMergeAll() {
+        StableShape shape = StableShape.builder(Shape.fromKM(3, 100)).setMax(3).setP(5).build();
+        BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+        BufferManager buffer = AbstractBufferManager.instance(shape);
+        StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(3, 4));
+        StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(3, 4));
+        int[] indices = { 1, 2, 3, 4, 5, 6, 1, 2, 3, 1, 1, 99 };
+        boolean[] present = new boolean[indices.length / 3];
+        for (int i = 0; i < present.length; i++) {
+            int[] item = Arrays.copyOfRange(indices, i * 3, i * 3 + 3);
+            present[i] = expected.testAndMerge(IndexProducer.fromIndexArray(item));
+        }
+        assertArrayEquals(present, underTest.testAndMergeAll(indices));
+        assertTrue(present[2]);
+        for (int i = 0; i < shape.numberOfCells(); i++) {
+            assertEquals(expectedBuffer.get(i), buffer.get(i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> underTest.testAndMergeAll(new int[] { 1, 2 }));
+        assertThrows(IllegalArgumentException.class, () -> underTest.testAndMergeAll(new int[] { 1, 2, 100 }));
+    }
+
+    @Test
+    public void testTestAndMergeAllReused() {
+        for (boolean blocked : new boolean[] { false, true }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 1000)).setMax(3).setP(5).setBlocked(blocked)
+                    .build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(3, 4));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(3, 4));
+            int[] indices = new int[12];
+            boolean[] result = new boolean[4];
+            for (int batch = 0; batch < 50; batch++) {
+                // a partial batch every other time, the tail of the arrays is ignored.
+                int items = batch % 2 == 0 ? 4 : 3;
+                for (int i = 0; i < items * 3; i++) {
+                    indices[i] = (batch * 37 + i * 101) % 200 + (i % 3) * 300;
+                }
+                int[] copy = indices.clone();
+                underTest.testAndMergeAll(indices, items * 3, result);
+                assertArrayEquals(copy, indices);
+                for (int i = 0; i < items; i++) {
+                    int[] item = Arrays.copyOfRange(indices, i * 3, i * 3 + 3);
+                    assertEquals(expected.testAndMerge(IndexProducer.fromIndexArray(item)), result[i],
+                            "blocked " + blocked);
+                }
+            }
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expectedBuffer.get(i), buffer.get(i));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> underTest.testAndMergeAll(indices, 15, result));
+            assertThrows(IndexOutOfBoundsException.class,
+                    () -> underTest.testAndMergeAll(indices, 12, new boolean[3]));
+            assertThrows(IllegalArgumentException.class, () -> underTest.testAndMergeAll(indices, 4, result));
+        }
+    }
+
+    @Test
+    public void testTestAndMergeAllGroups() {
+        for (boolean blocked : new boolean[] { false, true }) {
+            // a small filter with many decrements, so cells are cleared and items repeat within a group.
+            StableShape shape = StableShape.builder(Shape.fromKM(2, 64)).setMax(1).setP(8).setBlocked(blocked)
+                    .build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(3, 4));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(3, 4));
+            int items = StableBloomFilter.PROBE_GROUP * 12 + 5;
+            int[] indices = new int[items * 2];
+            boolean[] present = new boolean[items];
+            for (int i = 0; i < items; i++) {
+                int key = (i * 7) % 13;
+                indices[i * 2] = key * 5 % 64;
+                indices[i * 2 + 1] = key * 11 % 64;
+                present[i] = expected.testAndMerge(IndexProducer.fromIndexArray(indices[i * 2], indices[i * 2 + 1]));
+            }
+            assertArrayEquals(present, underTest.testAndMergeAll(indices), "blocked " + blocked);
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expectedBuffer.get(i), buffer.get(i));
+            }
+            assertEquals(expected.cardinality(), underTest.cardinality());
+        }
+    }
+
+    @Test
+    public void testRandomEngine() {
+        for (RandomEngine engine : RandomEngine.values()) {
+            StableShape shape = StableShape.builder(Shape.fromKM(3, 10_000)).setMax(3).setFps(0.1)
+                    .setRandomEngine(engine).build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, engine.create(1));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, engine.create(1));
+            int[] indices = new int[20_000 * 3];
+            IndexGenerator items = RandomEngine.SPLIT_MIX.create(2);
+            items.fill(indices, indices.length, shape.numberOfCells());
+            for (int i = 0; i < indices.length; i += 3) {
+                expected.merge(IndexProducer.fromIndexArray(Arrays.copyOfRange(indices, i, i + 3)));
+            }
+            underTest.mergeAll(indices);
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expectedBuffer.get(i), buffer.get(i), engine + " cell " + i);
+            }
+            // the mixing engines bring the filter to its stable point even early in their sequence.
+            if (engine != RandomEngine.ENHANCED_DOUBLE_HASH) {
+                assertEquals(shape.expectedCardinality, underTest.cardinality(), 150, engine.name());
+            }
+        }
+    }
+
+    @Test
+    public void testMergeHasherWithDuplicates() {
+        StableShape shape = StableShape.builder(Shape.fromKM(3, 100)).setMax(3).setP(1).build();
+        Hasher hasher = s -> IndexProducer.fromIndexArray(5, 5, 9);
+        BufferManager buffer = AbstractBufferManager.instance(shape);
+        StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(3, 4));
+        StableBloomFilter expected = new StableBloomFilter(shape, AbstractBufferManager.instance(shape),
+                new FastPseudoRandomInt(3, 4));
+        assertTrue(underTest.merge(hasher));
+        expected.merge(IndexProducer.fromIndexArray(5, 9));
+        assertArrayEquals(expected.asBitMapArray(), underTest.asBitMapArray());
+        assertEquals(expected.cardinality(), underTest.cardinality());
+        assertEquals(3, buffer.get(5));
+        assertTrue(underTest.contains(hasher));
+    }
+
+    @Test
+    public void testKeys() {
+        for (boolean blocked : new boolean[] { false, true }) {
+            StableShape shape = StableShape.builder(Shape.fromKM(7, 5000)).setMax(3).setP(3).setBlocked(blocked)
+                    .build();
+            BufferManager expectedBuffer = AbstractBufferManager.instance(shape);
+            BufferManager buffer = AbstractBufferManager.instance(shape);
+            StableBloomFilter expected = new StableBloomFilter(shape, expectedBuffer, new FastPseudoRandomInt(3, 4));
+            StableBloomFilter underTest = new StableBloomFilter(shape, buffer, new FastPseudoRandomInt(3, 4));
+            for (int i = 0; i < 500; i++) {
+                // every third key repeats an earlier one.
+                long msb = (i % 3 == 2 ? i - 2 : i) * 31L;
+                long lsb = (i % 3 == 2 ? i - 2 : i) * 0x9E3779B97F4A7C15L;
+                Hasher hasher = StableBloomFilter.hasher(msb, lsb);
+                assertEquals(expected.contains(hasher), underTest.containsKey(msb, lsb), blocked + " key " + i);
+                assertEquals(expected.testAndMerge(hasher), underTest.testAndMergeKey(msb, lsb), blocked + " key " + i);
+                assertTrue(underTest.containsKey(msb, lsb));
+                expected.merge(hasher);
+                underTest.mergeKey(msb, lsb);
+            }
+            for (int i = 0; i < shape.numberOfCells(); i++) {
+                assertEquals(expectedBuffer.get(i), buffer.get(i), blocked + " cell " + i);
+            }
+            assertEquals(expected.cardinality(), underTest.cardinality());
+
+            // a 64 bit key is the 128 bit key with no high bits.
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            assertFalse(filter.testAndMergeKey(42L));
+            assertTrue(filter.containsKey(0L, 42L));
+            assertTrue(filter.contains(StableBloomFilter.hasher(0L, 42L)));
+            filter.clear();
+            filter.mergeKey(42L);
+            assertTrue(filter.containsKey(42L));
+            assertTrue(filter.testAndMergeKey(0L, 42L));
+        }
+    }
 }
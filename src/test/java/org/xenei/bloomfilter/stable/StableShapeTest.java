@@ -1,8 +1,10 @@
 package org.xenei.bloomfilter.stable;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.apache.commons.collections4.bloomfilter.Shape;
 import org.junit.jupiter.api.Test;
@@ -18,6 +20,62 @@ public class StableShapeTest {
         assertEquals(6, underTest.decrementShape.getNumberOfHashFunctions());
     }
 
+    @Test
+    public void decrementStrategyTest() {
+        underTest = StableShape.builder(testShape).build();
+        assertEquals(DecrementStrategy.RANDOM, underTest.decrementStrategy);
+        StableShape sweep = StableShape.builder(testShape).setDecrementStrategy(DecrementStrategy.SWEEP).build();
+        assertEquals(DecrementStrategy.SWEEP, sweep.decrementStrategy);
+        // the strategy does not change the stable point.
+        assertEquals(underTest.stablePoint, sweep.stablePoint);
+        assertEquals(underTest.decrementShape, sweep.decrementShape);
+        assertThrows(NullPointerException.class, () -> StableShape.builder(testShape).setDecrementStrategy(null));
+    }
+
+    @Test
+    public void randomEngineTest() {
+        underTest = StableShape.builder(testShape).build();
+        assertEquals(RandomEngine.SPLIT_MIX, underTest.randomEngine);
+        StableShape counter = StableShape.builder(testShape).setRandomEngine(RandomEngine.COUNTER).build();
+        assertEquals(RandomEngine.COUNTER, counter.randomEngine);
+        // the engine does not change the stable point.
+        assertEquals(underTest.stablePoint, counter.stablePoint);
+        assertEquals(underTest.decrementShape, counter.decrementShape);
+        assertThrows(NullPointerException.class, () -> StableShape.builder(testShape).setRandomEngine(null));
+    }
+
+    @Test
+    public void blockedTest() {
+        StableShape plain = StableShape.builder().setM(100_000).setFps(0.01).setMax(3).build();
+        assertFalse(plain.isBlocked());
+        assertEquals(0, plain.cellsPerBlock);
+
+        StableShape blocked = StableShape.builder().setM(100_000).setFps(0.01).setMax(3).setBlocked(true).build();
+        assertTrue(blocked.isBlocked());
+        // 2 bits per cell
+        assertEquals(256, blocked.cellsPerBlock);
+        // m is rounded up to whole blocks
+        assertEquals(100_096, blocked.numberOfCells());
+        assertEquals(plain.getNumberOfHashFunctions(), blocked.getNumberOfHashFunctions());
+        // the adjusted rate is higher than the unblocked rate at the same stable point
+        assertTrue(blocked.fps > Math.pow(1 - blocked.stablePoint, blocked.getNumberOfHashFunctions()));
+        assertTrue(blocked.fps < 0.02, () -> "fps " + blocked.fps);
+
+        assertEquals(512, StableShape.calculateCellsPerBlock(1));
+        assertEquals(128, StableShape.calculateCellsPerBlock(7));
+        assertEquals(64, StableShape.calculateCellsPerBlock(255));
+        assertEquals(32, StableShape.calculateCellsPerBlock(300));
+    }
+
+    @Test
+    public void calculateBlockedFpsTest() {
+        double expected = Math.pow(0.5, 7);
+        assertEquals(expected, StableShape.calculateBlockedFps(1 << 20, 7, 0.5), expected * 0.001);
+        assertTrue(StableShape.calculateBlockedFps(64, 7, 0.5) > StableShape.calculateBlockedFps(512, 7, 0.5));
+        assertEquals(1.0, StableShape.calculateBlockedFps(64, 7, 0.0));
+        assertEquals(0.0, StableShape.calculateBlockedFps(64, 7, 1.0));
+    }
+
     @Test
     public void resetValueTest() {
         underTest = StableShape.builder(testShape).build();
@@ -28,7 +86,12 @@ public class StableShapeTest {
         underTest = StableShape.builder(testShape).setMax(250).build();
         assertEquals(250, underTest.resetValue());
 
-        assertThrows(IllegalArgumentException.class, () -> StableShape.builder(testShape).setMax(300).build());
+        underTest = StableShape.builder(testShape).setMax(300).build();
+        assertEquals(300, underTest.resetValue());
+        underTest = StableShape.builder(testShape).setMax(65535).build();
+        assertEquals(65535, underTest.resetValue());
+
+        assertThrows(IllegalArgumentException.class, () -> StableShape.builder(testShape).setMax(65536).build());
         assertThrows(IllegalArgumentException.class, () -> StableShape.builder(testShape).setMax(0).build());
     }
 
@@ -43,6 +106,18 @@ public class StableShapeTest {
         assertEquals(4, StableShape.builder(testShape).setMax(8).build().bitsPerCell());
         assertEquals(8, StableShape.builder(testShape).setMax(129).build().bitsPerCell());
         assertEquals(8, StableShape.builder(testShape).setMax(255).build().bitsPerCell());
+        assertEquals(9, StableShape.builder(testShape).setMax(256).build().bitsPerCell());
+        assertEquals(16, StableShape.builder(testShape).setMax(65535).build().bitsPerCell());
+    }
+
+    @Test
+    public void setDTest() {
+        assertEquals(1, StableShape.builder(testShape).setD(1).build().resetValue());
+        assertEquals(255, StableShape.builder(testShape).setD(8).build().resetValue());
+        assertEquals(4095, StableShape.builder(testShape).setD(12).build().resetValue());
+        assertEquals(65535, StableShape.builder(testShape).setD(16).build().resetValue());
+        assertThrows(IllegalArgumentException.class, () -> StableShape.builder(testShape).setD(0));
+        assertThrows(IllegalArgumentException.class, () -> StableShape.builder(testShape).setD(17));
     }
 
     @Test
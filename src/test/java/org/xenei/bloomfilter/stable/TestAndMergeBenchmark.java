@@ -0,0 +1,53 @@
+package org.xenei.bloomfilter.stable;
+
+import java.util.Random;
+
+import org.apache.commons.collections4.bloomfilter.EnhancedDoubleHasher;
+import org.apache.commons.collections4.bloomfilter.Hasher;
+import org.apache.commons.collections4.bloomfilter.Shape;
+
+/**
+ * Compares {@code contains} followed by {@code merge} with {@code testAndMerge}.
+ */
+public class TestAndMergeBenchmark {
+
+    private static final int CELLS = 10_000_000;
+    private static final int ITEMS = 20_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        Hasher[] items = new Hasher[ITEMS];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new EnhancedDoubleHasher(random.nextLong(), random.nextLong());
+        }
+        System.out.format("%12s %16s %16s%n", "strategy", "contains+merge", "testAndMerge");
+        for (DecrementStrategy strategy : DecrementStrategy.values()) {
+            StableShape shape = StableShape.builder(Shape.fromKM(7, CELLS)).setMax(3).setFps(0.01)
+                    .setDecrementStrategy(strategy).build();
+            StableBloomFilter filter = new StableBloomFilter(shape);
+            long separate = Long.MAX_VALUE;
+            long combined = Long.MAX_VALUE;
+            int found = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (Hasher item : items) {
+                    if (filter.contains(item)) {
+                        found++;
+                    }
+                    filter.merge(item);
+                }
+                separate = Math.min(separate, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (Hasher item : items) {
+                    if (filter.testAndMerge(item)) {
+                        found++;
+                    }
+                }
+                combined = Math.min(combined, System.nanoTime() - start);
+            }
+            System.out.format("%12s %16.2f %16.2f  (%s found)%n", strategy, separate * 1.0 / ITEMS,
+                    combined * 1.0 / ITEMS, found);
+        }
+    }
+}